@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Locale;
+
+/*
+    Checks that the settings snapshot follows the preferences it stands in for, and compares
+    formatting a temperature with and without it.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSettingsSnapshot.class.getSimpleName();
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mSavedUnits = mPrefs.getString(mUnitsKey, null);
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_metric))
+                .commit();
+        SettingsSnapshot.refresh(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mSavedUnits != null) {
+            editor.putString(mUnitsKey, mSavedUnits);
+        } else {
+            editor.remove(mUnitsKey);
+        }
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    public void testMatchesPreferences() {
+        SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+        assertEquals(mPrefs.getString(mContext.getString(R.string.pref_location_key),
+                mContext.getString(R.string.pref_location_default)), settings.locationSetting);
+        assertTrue(settings.isMetric);
+        assertSame("Error: an unchanged snapshot should be shared",
+                settings, SettingsSnapshot.get(mContext));
+    }
+
+    public void testChangeReplacesSnapshot() {
+        final SettingsSnapshot before = SettingsSnapshot.get(mContext);
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        // The listener runs on the main thread, after this write
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return !SettingsSnapshot.get(mContext).isMetric;
+            }
+        }.run();
+        assertTrue("Error: the replaced snapshot was modified", before.isMetric);
+        assertEquals("Error: the new units aren't used",
+                String.format(mContext.getString(R.string.format_temperature), 77.0),
+                Utility.formatTemperature(mContext, 25));
+    }
+
+    /*
+        Not a pass/fail test: logs how long formatting a temperature takes when the units and
+        format are read from the preferences each time, and from the snapshot.
+     */
+    public void testFormatTemperatureBenchmark() {
+        final int rounds = 20000;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < rounds; i++) {
+            formatTemperatureFromPreferences(i % 40);
+        }
+        long prefsNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < rounds; i++) {
+            Utility.formatTemperature(mContext, i % 40);
+        }
+        long snapshotNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d temperatures: preferences %.0f ns each, snapshot %.0f ns each",
+                rounds, (double) prefsNanos / rounds, (double) snapshotNanos / rounds));
+    }
+
+    // formatTemperature as it was written before the snapshot
+    private String formatTemperatureFromPreferences(double temperature) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        boolean isMetric = prefs.getString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric))
+                .equals(mContext.getString(R.string.pref_units_metric));
+        if (!isMetric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(mContext.getString(R.string.format_temperature), temperature);
+    }
+}
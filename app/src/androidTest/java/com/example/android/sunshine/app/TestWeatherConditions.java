@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/*
+    Checks the condition table against the chain of ranges it replaces, and compares how long
+    a lookup takes with each.
+ */
+public class TestWeatherConditions extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherConditions.class.getSimpleName();
+
+    private static final String ART_PACK = "http://example.com/art_%s.png";
+
+    public void testMatchesChain() {
+        for (int weatherId = 0; weatherId < 1000; weatherId++) {
+            String name = chainArtName(weatherId);
+            assertEquals("Error: icon of " + weatherId, chainIcon(weatherId),
+                    Utility.getIconResourceForWeatherCondition(weatherId));
+            assertEquals("Error: art url of " + weatherId,
+                    name != null ? String.format(Locale.US, ART_PACK, name) : null,
+                    WeatherConditions.getArtUrl(ART_PACK, weatherId));
+            assertEquals("Error: art of " + weatherId, name == null,
+                    Utility.getArtResourceForWeatherCondition(weatherId) == -1);
+            assertEquals("Error: image of " + weatherId, name == null,
+                    Utility.getImageUrlForWeatherCondition(weatherId) == null);
+        }
+    }
+
+    public void testStrings() {
+        assertEquals(mContext.getString(R.string.condition_2xx),
+                Utility.getStringForWeatherCondition(mContext, 211));
+        assertEquals(mContext.getString(R.string.condition_531),
+                Utility.getStringForWeatherCondition(mContext, 531));
+        assertEquals(mContext.getString(R.string.condition_962),
+                Utility.getStringForWeatherCondition(mContext, 962));
+        assertEquals("Error: a code without a description should be reported as unknown",
+                mContext.getString(R.string.condition_unknown, 530),
+                Utility.getStringForWeatherCondition(mContext, 530));
+        assertEquals(mContext.getString(R.string.condition_unknown, 1000),
+                Utility.getStringForWeatherCondition(mContext, 1000));
+    }
+
+    public void testArtPackChange() {
+        assertEquals("http://example.com/art_clear.png", WeatherConditions.getArtUrl(ART_PACK, 800));
+        assertEquals("Error: the URLs of the previous art pack were kept",
+                "http://example.org/clear.jpg",
+                WeatherConditions.getArtUrl("http://example.org/%s.jpg", 800));
+    }
+
+    /*
+        Not a pass/fail test: logs how long an icon lookup takes through the chain and through
+        the table, over every code a forecast can hold.
+     */
+    public void testLookupBenchmark() {
+        final int rounds = 1000;
+        long sink = 0;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < rounds; i++) {
+            for (int weatherId = 200; weatherId < 1000; weatherId++) {
+                sink += chainIcon(weatherId);
+            }
+        }
+        long chainNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < rounds; i++) {
+            for (int weatherId = 200; weatherId < 1000; weatherId++) {
+                sink -= WeatherConditions.getIcon(weatherId);
+            }
+        }
+        long tableNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        assertEquals(0, sink);
+        int lookups = rounds * 800;
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d lookups: chain %.1f ns each, table %.1f ns each",
+                lookups, (double) chainNanos / lookups, (double) tableNanos / lookups));
+    }
+
+    // The icon lookup as it was written before the table
+    private static int chainIcon(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+
+    // The art URL lookup as it was written before the table
+    private static String chainArtName(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "storm";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "light_rain";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "rain";
+        } else if (weatherId == 511) {
+            return "snow";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "rain";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "snow";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "fog";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "storm";
+        } else if (weatherId == 800) {
+            return "clear";
+        } else if (weatherId == 801) {
+            return "light_clouds";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "clouds";
+        }
+        return null;
+    }
+}
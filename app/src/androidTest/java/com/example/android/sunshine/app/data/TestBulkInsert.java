@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+
+/*
+    Checks the precompiled bulk insert paths of the provider and compares them with inserting
+    each row through SQLiteDatabase.insert, which is what bulkInsert used to do.
+ */
+public class TestBulkInsert extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsert.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testBulkInsertPathsStoreTheSameRows() {
+        ContentValues[] values = createWeatherValues(14);
+        assertEquals(14, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+        Cursor fromValues = queryAll();
+        assertEquals(14, fromValues.getCount());
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertEquals(14, insertTyped(createWeatherBatch(14)));
+        Cursor fromBatch = queryAll();
+        assertEquals(14, fromBatch.getCount());
+
+        while (fromValues.moveToNext() && fromBatch.moveToNext()) {
+            for (int column = 0; column < fromValues.getColumnCount(); column++) {
+                if (WeatherEntry._ID.equals(fromValues.getColumnName(column))) {
+                    continue;
+                }
+                assertEquals("Error: column " + fromValues.getColumnName(column) + " differs",
+                        fromValues.getString(column), fromBatch.getString(column));
+            }
+        }
+        fromValues.close();
+        fromBatch.close();
+    }
+
+    public void testIncompleteRowsAreSkipped() {
+        ContentValues[] values = createWeatherValues(3);
+        values[1].remove(WeatherEntry.COLUMN_WIND);
+        assertEquals(2, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+        assertEquals("Error: the incomplete row was stored", 2, queryAllCount());
+    }
+
+    public void testFractionalRowsAreSkipped() {
+        ContentValues[] values = createWeatherValues(3);
+        // A temperature in degrees rather than in tenths of a degree
+        values[1].put(WeatherEntry.COLUMN_MAX_TEMP, 12.5);
+        assertEquals(2, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+        assertEquals("Error: the fractional row was stored", 2, queryAllCount());
+    }
+
+    public void testRowsWithUnknownColumnsAreSkipped() {
+        ContentValues[] values = createWeatherValues(3);
+        values[1].put("short_desc", "Asteroids");
+        assertEquals(2, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+        assertEquals("Error: the row with an unknown column was stored", 2, queryAllCount());
+    }
+
+    public void testMalformedBatchIsRejected() {
+        Bundle missingColumn = createWeatherBatch(3).toBundle();
+        missingColumn.remove("winds");
+        Bundle shortColumn = createWeatherBatch(3).toBundle();
+        shortColumn.putIntArray("winds", new int[2]);
+        for (Bundle extras : new Bundle[]{null, new Bundle(), missingColumn, shortColumn}) {
+            try {
+                mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.METHOD_BULK_INSERT_WEATHER, null, extras);
+                fail("Error: a malformed batch should throw: " + extras);
+            } catch (IllegalArgumentException expected) {
+                // good
+            }
+        }
+        assertEquals("Error: a malformed batch stored rows", 0, queryAllCount());
+    }
+
+    /*
+        Not a pass/fail test: logs how long each path takes at sync sized and larger batches.
+     */
+    public void testBulkInsertBenchmark() {
+        final int[] sizes = {14, 500, 10000};
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        for (int numRows : sizes) {
+            ContentValues[] values = createWeatherValues(numRows);
+            long start = SystemClock.elapsedRealtimeNanos();
+            insertEachRow(db, values);
+            long legacyNanos = SystemClock.elapsedRealtimeNanos() - start;
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+            values = createWeatherValues(numRows);
+            start = SystemClock.elapsedRealtimeNanos();
+            int inserted = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+            long compiledNanos = SystemClock.elapsedRealtimeNanos() - start;
+            assertEquals(numRows, inserted);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+            WeatherBatch batch = createWeatherBatch(numRows);
+            start = SystemClock.elapsedRealtimeNanos();
+            inserted = insertTyped(batch);
+            long typedNanos = SystemClock.elapsedRealtimeNanos() - start;
+            assertEquals(numRows, inserted);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%d rows: insert per row %.1f ms, compiled %.1f ms, typed %.1f ms",
+                    numRows, legacyNanos / 1e6, compiledNanos / 1e6, typedNanos / 1e6));
+        }
+        dbHelper.close();
+    }
+
+    /*
+        The bulkInsert this replaces: SQLiteDatabase.insert for every row, in one transaction.
+     */
+    private static void insertEachRow(SQLiteDatabase db, ContentValues[] values) {
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                value.put(WeatherEntry.COLUMN_DATE,
+                        WeatherContract.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE)));
+                db.insert(WeatherEntry.TABLE_NAME, null, value);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private int insertTyped(WeatherBatch batch) {
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_WEATHER, null, batch.toBundle());
+        return result.getInt(WeatherContract.KEY_ROW_COUNT);
+    }
+
+    private ContentValues[] createWeatherValues(int numRows) {
+        ContentValues[] values = new ContentValues[numRows];
+        for (int i = 0; i < numRows; i++) {
+            values[i] = TestUtilities.createWeatherValues(mLocationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+        }
+        return values;
+    }
+
+    private WeatherBatch createWeatherBatch(int numRows) {
+        WeatherBatch batch = new WeatherBatch(numRows);
+        for (int i = 0; i < numRows; i++) {
+            // the same values as TestUtilities.createWeatherValues
+            batch.add(mLocationId, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS, 321,
+                    65, 75, 12, 1013.2, 5.5, 110);
+        }
+        return batch;
+    }
+
+    private Cursor queryAll() {
+        return mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private int queryAllCount() {
+        Cursor cursor = queryAll();
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+    Upgrades a database of every earlier version and checks that it ends up with the same schema
+    as a new one, and, from the versions that are migrated, with the same data.
+
+    The schemas of earlier versions are written out literally below, as they shipped.  They must
+    never be changed: add the schema of the current version here when you increment it.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final String[] SCHEMA_VERSION_2 = {
+            "CREATE TABLE location (" +
+                    "_id INTEGER PRIMARY KEY," +
+                    "location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, " +
+                    "coord_lat REAL NOT NULL, " +
+                    "coord_long REAL NOT NULL  );",
+            "CREATE TABLE weather (" +
+                    "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, " +
+                    "short_desc TEXT NOT NULL, " +
+                    "weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, " +
+                    "max REAL NOT NULL, " +
+                    "humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, " +
+                    "wind REAL NOT NULL, " +
+                    "degrees REAL NOT NULL,  " +
+                    "FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    private static final String[] SCHEMA_VERSION_3 = {
+            SCHEMA_VERSION_2[0],
+            SCHEMA_VERSION_2[1],
+            "CREATE INDEX weather_location_date ON weather " +
+                    "(location_id, date, weather_id, short_desc, max, min);"
+    };
+
+    private static final String[] SCHEMA_VERSION_4 = {
+            SCHEMA_VERSION_2[0],
+            "CREATE TABLE weather (" +
+                    "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, " +
+                    "weather_id INTEGER NOT NULL," +
+                    "min INTEGER NOT NULL, " +
+                    "max INTEGER NOT NULL, " +
+                    "humidity INTEGER NOT NULL, " +
+                    "pressure INTEGER NOT NULL, " +
+                    "wind INTEGER NOT NULL,  " +
+                    "FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "UNIQUE (date, location_id) ON CONFLICT REPLACE);",
+            "CREATE INDEX weather_location_date ON weather " +
+                    "(location_id, date, weather_id, max, min);"
+    };
+
+    private static final String[] SCHEMA_VERSION_5 = {
+            "CREATE TABLE location (" +
+                    "_id INTEGER PRIMARY KEY," +
+                    "location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, " +
+                    "coord_lat REAL NOT NULL, " +
+                    "coord_long REAL NOT NULL, " +
+                    "last_used INTEGER NOT NULL DEFAULT 0 );",
+            SCHEMA_VERSION_4[1],
+            SCHEMA_VERSION_4[2]
+    };
+
+    // The first version whose weather table holds fixed point values
+    private static final int FIXED_POINT_VERSION = 4;
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    // Every version that is upgraded in place, indexed by version
+    private static final String[][] SCHEMAS =
+            {null, null, SCHEMA_VERSION_2, SCHEMA_VERSION_3, SCHEMA_VERSION_4, SCHEMA_VERSION_5};
+
+    // Stands in for the pre-release schema of version 1, which is rebuilt rather than migrated
+    private static final String[] SCHEMA_VERSION_1 = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT);",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY, location_id INTEGER, date TEXT);"
+    };
+
+    private Set<String> mCurrentSchema;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        mCurrentSchema = readSchema(dbHelper.getReadableDatabase());
+        dbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testSchemaOfCurrentVersionIsListed() {
+        assertEquals("Error: add the schema of the new version to SCHEMAS",
+                WeatherDbHelper.DATABASE_VERSION, SCHEMAS.length - 1);
+        createDatabase(SCHEMAS[WeatherDbHelper.DATABASE_VERSION],
+                WeatherDbHelper.DATABASE_VERSION).close();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        assertEquals("Error: the listed schema differs from the one onCreate makes",
+                mCurrentSchema, readSchema(dbHelper.getReadableDatabase()));
+        dbHelper.close();
+    }
+
+    public void testEveryMigratedVersionKeepsItsData() {
+        for (int version = WeatherDbHelper.OLDEST_MIGRATED_VERSION;
+                version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            SQLiteDatabase db = createDatabase(SCHEMAS[version], version);
+            long locationId = db.insert(LocationEntry.TABLE_NAME, null,
+                    TestUtilities.createNorthPoleLocationValues());
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+            ContentValues coldWeatherValues = createColdWeatherValues(locationId);
+            db.insert(WeatherEntry.TABLE_NAME, null, version < FIXED_POINT_VERSION
+                    ? createRealWeatherValues(locationId) : weatherValues);
+            db.insert(WeatherEntry.TABLE_NAME, null, version < FIXED_POINT_VERSION
+                    ? createRealColdWeatherValues(locationId) : coldWeatherValues);
+            db.close();
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+            db = dbHelper.getReadableDatabase();
+            assertEquals("Error: version " + version + " upgraded to another schema",
+                    mCurrentSchema, readSchema(db));
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            String error = "Error: version " + version + " lost its weather";
+            assertEquals(error, 2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            TestUtilities.validateCurrentRecord(error, cursor, weatherValues);
+            assertTrue(cursor.moveToNext());
+            TestUtilities.validateCurrentRecord(error, cursor, coldWeatherValues);
+            cursor.close();
+            assertEquals(1, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+            assertTrue("Error: version " + version + " left its location unused",
+                    DatabaseUtils.longForQuery(db, "SELECT " + LocationEntry.COLUMN_LAST_USED +
+                            " FROM " + LocationEntry.TABLE_NAME, null) > 0);
+            dbHelper.close();
+        }
+    }
+
+    public void testOlderVersionIsRebuilt() {
+        SQLiteDatabase db = createDatabase(SCHEMA_VERSION_1, 1);
+        db.execSQL("INSERT INTO location (location_setting) VALUES ('99705')");
+        db.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        db = dbHelper.getReadableDatabase();
+        assertEquals(mCurrentSchema, readSchema(db));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        dbHelper.close();
+    }
+
+    public void testNewerVersionIsRebuilt() {
+        createDatabase(SCHEMAS[WeatherDbHelper.DATABASE_VERSION],
+                WeatherDbHelper.DATABASE_VERSION + 1).close();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        assertEquals(mCurrentSchema, readSchema(dbHelper.getReadableDatabase()));
+        dbHelper.close();
+    }
+
+    /*
+        The values of TestUtilities.createWeatherValues, as the versions before
+        FIXED_POINT_VERSION stored them.
+     */
+    private static ContentValues createRealWeatherValues(long locationRowId) {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put("location_id", locationRowId);
+        weatherValues.put("date", TestUtilities.TEST_DATE);
+        weatherValues.put("degrees", 110.0);
+        weatherValues.put("humidity", 12.0);
+        weatherValues.put("pressure", 1013.2);
+        weatherValues.put("max", 75.0);
+        weatherValues.put("min", 65.0);
+        weatherValues.put("short_desc", "Asteroids");
+        weatherValues.put("wind", 5.5);
+        weatherValues.put("weather_id", 321);
+        return weatherValues;
+    }
+
+    /*
+        A day after TestUtilities.createWeatherValues, with negative halves to round: Math.round
+        takes them up, where SQLite's ROUND takes them away from zero.
+     */
+    private static ContentValues createColdWeatherValues(long locationRowId) {
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + DAY_IN_MILLIS);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.encodeTemperature(-0.25));
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.encodeTemperature(-2.25));
+        weatherValues.put(WeatherEntry.COLUMN_WIND, WeatherEntry.encodeWind(5.5, -90.5));
+        return weatherValues;
+    }
+
+    /*
+        The values of createColdWeatherValues, as the versions before FIXED_POINT_VERSION stored
+        them.
+     */
+    private static ContentValues createRealColdWeatherValues(long locationRowId) {
+        ContentValues weatherValues = createRealWeatherValues(locationRowId);
+        weatherValues.put("date", TestUtilities.TEST_DATE + DAY_IN_MILLIS);
+        weatherValues.put("max", -0.25);
+        weatherValues.put("min", -2.25);
+        weatherValues.put("degrees", -90.5);
+        return weatherValues;
+    }
+
+    private SQLiteDatabase createDatabase(String[] schema, int version) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+        for (String statement : schema) {
+            db.execSQL(statement);
+        }
+        db.setVersion(version);
+        return db;
+    }
+
+    /*
+        Describes every table and index by its columns, so that schemas can be compared without
+        depending on how their SQL was written.
+     */
+    private static Set<String> readSchema(SQLiteDatabase db) {
+        Set<String> schema = new TreeSet<String>();
+        Cursor objects = db.rawQuery("SELECT type, name, tbl_name FROM sqlite_master " +
+                "WHERE name != 'android_metadata'", null);
+        while (objects.moveToNext()) {
+            String type = objects.getString(0);
+            String name = objects.getString(1);
+            schema.add(type + " " + name + " on " + objects.getString(2));
+            if ("table".equals(type)) {
+                Cursor columns = db.rawQuery("PRAGMA table_info(" + name + ")", null);
+                while (columns.moveToNext()) {
+                    schema.add(name + "." + columns.getString(columns.getColumnIndex("name")) +
+                            " " + columns.getString(columns.getColumnIndex("type")) +
+                            " notnull=" + columns.getInt(columns.getColumnIndex("notnull")) +
+                            " pk=" + columns.getInt(columns.getColumnIndex("pk")));
+                }
+                columns.close();
+            } else if ("index".equals(type)) {
+                Cursor columns = db.rawQuery("PRAGMA index_info(" + name + ")", null);
+                while (columns.moveToNext()) {
+                    schema.add(name + "[" + columns.getInt(columns.getColumnIndex("seqno")) +
+                            "] " + columns.getString(columns.getColumnIndex("name")));
+                }
+                columns.close();
+            }
+        }
+        objects.close();
+        return schema;
+    }
+}
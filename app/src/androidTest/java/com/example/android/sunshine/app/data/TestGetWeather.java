@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+
+/*
+    Checks the typed read of METHOD_GET_WEATHER against the cursor query it stands in for.
+ */
+public class TestGetWeather extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestGetWeather.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int NUM_DAYS = 14;
+
+    private static final String[] CURSOR_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        WeatherBatch batch = new WeatherBatch(NUM_DAYS);
+        for (int i = 0; i < NUM_DAYS; i++) {
+            batch.add(mLocationId, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS, 300 + i,
+                    65 - i, 75 + i, 12, 1013.2, 5.5, 110);
+        }
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_WEATHER, null, batch.toBundle());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testReadsSameRowsAsQuery() {
+        WeatherBatch weather = getWeather(TestUtilities.TEST_DATE, null, 0);
+        Cursor cursor = queryForecast();
+        assertEquals("Error: row counts differ", cursor.getCount(), weather.size());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(mLocationId, weather.getLocationId(i));
+            assertEquals(cursor.getLong(0), weather.getDate(i));
+            assertEquals(cursor.getInt(1), weather.getWeatherId(i));
+            assertEquals(WeatherEntry.getTemperature(cursor, 2), weather.getMaxTemp(i), 0);
+            assertEquals(WeatherEntry.getTemperature(cursor, 3), weather.getMinTemp(i), 0);
+        }
+        cursor.close();
+    }
+
+    public void testDateRangeAndRowCount() {
+        long firstDate = TestUtilities.TEST_DATE + 2 * DAY_IN_MILLIS;
+        long lastDate = TestUtilities.TEST_DATE + 5 * DAY_IN_MILLIS;
+        WeatherBatch weather = getWeather(firstDate, lastDate, 0);
+        assertEquals("Error: wrong number of days in range", 4, weather.size());
+        assertEquals(WeatherContract.normalizeDate(firstDate), weather.getDate(0));
+        assertEquals(WeatherContract.normalizeDate(lastDate), weather.getDate(3));
+
+        weather = getWeather(firstDate, null, 1);
+        assertEquals("Error: row count not applied", 1, weather.size());
+        assertEquals(WeatherContract.normalizeDate(firstDate), weather.getDate(0));
+    }
+
+    public void testUnknownLocationIsEmpty() {
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_WEATHER, "unknown", null);
+        assertEquals(0, WeatherBatch.fromBundle(result).size());
+    }
+
+    public void testMissingLocationIsRejected() {
+        try {
+            mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_GET_WEATHER, null, null);
+            fail("Error: reading the weather without a location setting should throw");
+        } catch (IllegalArgumentException expected) {
+            // good
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs how long reading the forecast takes through a cursor and
+        through the typed read.  After the first round the cursor path is served by the
+        provider's query cache, so this compares against its best case.
+     */
+    public void testGetWeatherBenchmark() {
+        final int rounds = 200;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < rounds; i++) {
+            Cursor cursor = queryForecast();
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getInt(1);
+                WeatherEntry.getTemperature(cursor, 2);
+                WeatherEntry.getTemperature(cursor, 3);
+            }
+            cursor.close();
+        }
+        long cursorNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < rounds; i++) {
+            WeatherBatch weather = getWeather(TestUtilities.TEST_DATE, null, 0);
+            for (int row = 0; row < weather.size(); row++) {
+                weather.getDate(row);
+                weather.getWeatherId(row);
+                weather.getMaxTemp(row);
+                weather.getMinTemp(row);
+            }
+        }
+        long typedNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d reads of %d days: cursor %.1f us each, typed %.1f us each",
+                rounds, NUM_DAYS, cursorNanos / 1e3 / rounds, typedNanos / 1e3 / rounds));
+    }
+
+    private WeatherBatch getWeather(long startDate, Long endDate, int rowCount) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.KEY_START_DATE, startDate);
+        if (endDate != null) {
+            extras.putLong(WeatherContract.KEY_END_DATE, endDate);
+        }
+        if (rowCount > 0) {
+            extras.putInt(WeatherContract.KEY_ROW_COUNT, rowCount);
+        }
+        return WeatherBatch.fromBundle(mContext.getContentResolver().call(
+                WeatherContract.BASE_CONTENT_URI, WeatherContract.METHOD_GET_WEATHER,
+                TestUtilities.TEST_LOCATION, extras));
+    }
+
+    private Cursor queryForecast() {
+        return mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                CURSOR_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*
+    Checks JulianDay against the Time arithmetic it replaces, in time zones with and without
+    daylight saving time.
+ */
+public class TestJulianDay extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestJulianDay.class.getSimpleName();
+
+    private static final String[] TIME_ZONES = {
+            "UTC", "America/Los_Angeles", "Europe/Berlin", "Australia/Lord_Howe", "Asia/Kolkata"
+    };
+
+    // Two years from December 20th, 2014, in steps that land at every hour of the day
+    private static final long START_MILLIS = 1419033600000L;
+    private static final long STEP_MILLIS = 61 * 60 * 1000 + 7;
+    private static final int STEPS = 2 * 365 * 24;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultTimeZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultTimeZone);
+        JulianDay.setTimeZone(mDefaultTimeZone);
+        super.tearDown();
+    }
+
+    public void testMatchesTime() {
+        for (String id : TIME_ZONES) {
+            useTimeZone(id);
+            for (int i = 0; i < STEPS; i++) {
+                long millis = START_MILLIS + i * STEP_MILLIS;
+                Time time = new Time();
+                time.set(millis);
+                int julianDay = Time.getJulianDay(millis, time.gmtoff);
+                assertEquals("Error: day of " + millis + " in " + id,
+                        julianDay, JulianDay.fromMillis(millis));
+                assertEquals("Error: midnight of " + millis + " in " + id,
+                        time.setJulianDay(julianDay), JulianDay.normalize(millis));
+            }
+        }
+    }
+
+    public void testTimeZoneChange() {
+        useTimeZone("UTC");
+        long utcMidnight = JulianDay.normalize(START_MILLIS);
+        useTimeZone("Asia/Kolkata");
+        assertEquals("Error: cached time zone not replaced",
+                utcMidnight - (5 * 60 + 30) * 60 * 1000, JulianDay.normalize(START_MILLIS));
+    }
+
+    /*
+        Not a pass/fail test: logs how long normalizing a date takes with Time and without.
+     */
+    public void testNormalizeBenchmark() {
+        final int rounds = 100000;
+        long sink = 0;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < rounds; i++) {
+            long millis = START_MILLIS + i * STEP_MILLIS;
+            Time time = new Time();
+            time.set(millis);
+            sink += time.setJulianDay(Time.getJulianDay(millis, time.gmtoff));
+        }
+        long timeNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < rounds; i++) {
+            sink -= JulianDay.normalize(START_MILLIS + i * STEP_MILLIS);
+        }
+        long julianDayNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        assertEquals(0, sink);
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d dates: Time %.0f ns each, JulianDay %.0f ns each",
+                rounds, (double) timeNanos / rounds, (double) julianDayNanos / rounds));
+    }
+
+    private static void useTimeZone(String id) {
+        TimeZone timeZone = TimeZone.getTimeZone(id);
+        TimeZone.setDefault(timeZone);
+        JulianDay.setTimeZone(timeZone);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+public class TestLocationIdCache extends AndroidTestCase {
+
+    // Change notifications are delivered asynchronously
+    private static final long NOTIFY_TIMEOUT_MILLIS = 5000;
+
+    private LocationIdCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = LocationIdCache.getInstance(mContext);
+        mCache.invalidate();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        mCache.invalidate();
+        super.tearDown();
+    }
+
+    public void testWarmsFromLocationTable() {
+        long before = System.currentTimeMillis();
+        long locationId = insertLocation();
+        assertEquals(locationId, mCache.getLocationId(TestUtilities.TEST_LOCATION));
+        assertTrue("Error: an inserted location should count as used when it was added",
+                mCache.getLastUsed(TestUtilities.TEST_LOCATION) >= before);
+        assertTrue(mCache.getLocationSettings().contains(TestUtilities.TEST_LOCATION));
+        assertEquals(-1, mCache.getLocationId("unknown"));
+    }
+
+    public void testProviderChangesInvalidate() {
+        assertEquals(-1, mCache.getLocationId(TestUtilities.TEST_LOCATION));
+        long locationId = insertLocation();
+        assertTrue("Error: an inserted location should become visible",
+                waitForLocationId(TestUtilities.TEST_LOCATION, locationId));
+
+        deleteAllRecords();
+        assertTrue("Error: a deleted location should disappear",
+                waitForLocationId(TestUtilities.TEST_LOCATION, -1));
+    }
+
+    public void testPutIsVisibleImmediately() {
+        assertEquals(-1, mCache.getLocationId("elsewhere"));
+        mCache.put("elsewhere", 42, 1000);
+        assertEquals(42, mCache.getLocationId("elsewhere"));
+        assertEquals(1000, mCache.getLastUsed("elsewhere"));
+    }
+
+    private boolean waitForLocationId(String locationSetting, long expected) {
+        long deadline = SystemClock.elapsedRealtime() + NOTIFY_TIMEOUT_MILLIS;
+        while (mCache.getLocationId(locationSetting) != expected) {
+            if (SystemClock.elapsedRealtime() > deadline) {
+                return false;
+            }
+            SystemClock.sleep(10);
+        }
+        return true;
+    }
+
+    private long insertLocation() {
+        return ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
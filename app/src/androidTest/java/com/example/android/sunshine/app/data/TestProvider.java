@@ -16,20 +16,25 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -432,13 +437,16 @@ public class TestProvider extends AndroidTestCase {
             ContentValues weatherValues = new ContentValues();
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationRowId);
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, currentTestDate);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2 + 0.01 * (float) i);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3 - 0.01 * (float) i);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65 - i);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5 + 0.2 * (float) i);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherContract.WeatherEntry.encodeHumidity(12 + i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    WeatherContract.WeatherEntry.encodePressure(1013.2 - 0.1 * i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherContract.WeatherEntry.encodeTemperature(75 + i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                    WeatherContract.WeatherEntry.encodeTemperature(65 - i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND,
+                    WeatherContract.WeatherEntry.encodeWind(5.5 + 0.2 * i, 110));
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 321);
             returnContentValues[i] = weatherValues;
         }
@@ -512,4 +520,145 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // How long to wait for notifications that shouldn't arrive
+    private static final long QUIET_MILLIS = 1000;
+
+    public void testApplyBatchNotifiesOnceAfterCommit() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(0)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        // Give any extra notifications time to arrive
+        SystemClock.sleep(QUIET_MILLIS);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals("Error: a batch of weather inserts and a delete should notify once",
+                1, weatherObserver.mChangeCount);
+    }
+
+    public void testFailedApplyBatchDoesNotNotify() throws Exception {
+        ContentValues incompleteValues = TestUtilities.createWeatherValues(1);
+        incompleteValues.remove(WeatherEntry.COLUMN_WIND);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(TestUtilities.createWeatherValues(1))
+                .build());
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(incompleteValues)
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: a row missing a NOT NULL column should fail the batch");
+        } catch (SQLException e) {
+            // expected
+        }
+        SystemClock.sleep(QUIET_MILLIS);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        weatherObserver.mHT.quit();
+
+        assertEquals("Error: a rolled back batch shouldn't notify", 0, weatherObserver.mChangeCount);
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: a failed batch should be rolled back", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testApplyBatchRejectsFractions() throws Exception {
+        ContentValues unencodedValues = TestUtilities.createWeatherValues(1);
+        // A temperature in degrees rather than in tenths of a degree
+        unencodedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 12.5);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(unencodedValues)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: a fraction in a fixed point column should fail the batch");
+        } catch (SQLException e) {
+            // expected
+        }
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: the fraction was stored", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testApplyBatchRejectsUnknownColumns() throws Exception {
+        ContentValues unknownValues = TestUtilities.createWeatherValues(1);
+        unknownValues.put("short_desc", "Asteroids");
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(unknownValues)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: a column the weather table doesn't have should fail the batch");
+        } catch (SQLException e) {
+            // expected
+        }
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: the row with an unknown column was stored", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testWritesNotifyOnlyTheirLocationAndDate() {
+        long locationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues otherLocationValues = TestUtilities.createNorthPoleLocationValues();
+        otherLocationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "elsewhere");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocationValues);
+        long nextDay = TestUtilities.TEST_DATE + 1000 * 60 * 60 * 24;
+
+        // Observers like the cursors of the forecast list and the detail screen
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE), true, dayObserver);
+        TestUtilities.TestContentObserver nextDayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, nextDay),
+                true, nextDayObserver);
+        TestUtilities.TestContentObserver otherLocationObserver =
+                TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("elsewhere"), true, otherLocationObserver);
+
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationId));
+        dayObserver.waitForNotificationOrFail();
+        SystemClock.sleep(QUIET_MILLIS);
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        mContext.getContentResolver().unregisterContentObserver(nextDayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+        nextDayObserver.mHT.quit();
+        otherLocationObserver.mHT.quit();
+
+        assertEquals("Error: another day of the location shouldn't be notified",
+                0, nextDayObserver.mChangeCount);
+        assertEquals("Error: another location shouldn't be notified",
+                0, otherLocationObserver.mChangeCount);
+    }
 }
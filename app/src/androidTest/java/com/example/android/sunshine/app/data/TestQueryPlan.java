@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the queries the app makes most often, and fails if any of them
+    falls back to scanning a table or sorting its results.  These queries get slower with every
+    stored day and location unless they are served by an index.
+ */
+public class TestQueryPlan extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlan.class.getSimpleName();
+
+    // The projection of ForecastFragment's list
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testForecastListIsCovered() {
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                FORECAST_COLUMNS, WeatherProvider.sLocationSettingWithStartDateSelection,
+                null, null, WeatherEntry.COLUMN_DATE + " ASC", null);
+        List<String> plan = explain(sql, TestUtilities.TEST_LOCATION,
+                Long.toString(TestUtilities.TEST_DATE));
+        assertNoScanOrSort(plan);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE, true);
+    }
+
+    public void testAllDaysOfLocationUsesIndex() {
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingSelection,
+                null, null, WeatherEntry.COLUMN_DATE + " ASC", null);
+        List<String> plan = explain(sql, TestUtilities.TEST_LOCATION);
+        assertNoScanOrSort(plan);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE, false);
+    }
+
+    public void testDateRangeUsesIndex() {
+        // The typed read of METHOD_GET_WEATHER
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                WeatherBatch.COLUMNS, WeatherProvider.sLocationSettingWithDateRangeSelection,
+                null, null, WeatherEntry.COLUMN_DATE + " ASC", "1");
+        List<String> plan = explain(sql, TestUtilities.TEST_LOCATION,
+                Long.toString(TestUtilities.TEST_DATE), Long.toString(Long.MAX_VALUE));
+        assertNoScanOrSort(plan);
+        assertUsesIndex(plan, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE, false);
+    }
+
+    public void testDetailUsesIndex() {
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingAndDaySelection, null, null, null, null);
+        // Served by either the UNIQUE (date, location_id) index or ours, both find one row
+        assertNoScanOrSort(explain(sql, TestUtilities.TEST_LOCATION,
+                Long.toString(TestUtilities.TEST_DATE)));
+    }
+
+    public void testLocationLookupUsesIndex() {
+        // The sync adapter's lookup of a location's row id
+        String sql = "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+        assertNoScanOrSort(explain(sql, TestUtilities.TEST_LOCATION));
+    }
+
+    public void testDeleteOldDaysUsesIndex() {
+        // The rows the sync adapter deletes once their day has passed
+        String sql = "SELECT " + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.COLUMN_DATE + " <= ?";
+        assertNoScanOrSort(explain(sql, Long.toString(TestUtilities.TEST_DATE)));
+    }
+
+    private List<String> explain(String sql, String... args) {
+        List<String> plan = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        Log.d(LOG_TAG, sql + " -> " + plan);
+        return plan;
+    }
+
+    private static void assertNoScanOrSort(List<String> plan) {
+        assertFalse("Error: no query plan", plan.isEmpty());
+        for (String step : plan) {
+            // Older SQLite versions say "SCAN TABLE x", newer ones "SCAN x"
+            assertFalse("Error: query scans a table: " + plan, step.startsWith("SCAN"));
+            assertFalse("Error: query sorts its results: " + plan, step.contains("TEMP B-TREE"));
+        }
+    }
+
+    private static void assertUsesIndex(List<String> plan, String index, boolean covering) {
+        String expected = (covering ? "USING COVERING INDEX " : "INDEX ") + index;
+        for (String step : plan) {
+            if (step.contains(expected)) {
+                return;
+            }
+        }
+        fail("Error: query doesn't use " + expected + ": " + plan);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+
+public class TestTodaySnapshot extends AndroidTestCase {
+
+    private String mSavedLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        mSavedLocation = prefs.getString(locationKey, null);
+        prefs.edit().putString(locationKey, TestUtilities.TEST_LOCATION).commit();
+        SettingsSnapshot.refresh(mContext);
+        TodaySnapshot.publish(null);
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        TodaySnapshot.publish(null);
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        if (mSavedLocation != null) {
+            editor.putString(locationKey, mSavedLocation);
+        } else {
+            editor.remove(locationKey);
+        }
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    public void testColdMissReadsProvider() {
+        long locationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, today);
+        mContext.getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI,
+                weatherValues);
+
+        TodaySnapshot snapshot = TodaySnapshot.get(mContext);
+        assertNotNull("Error: today's row should be found in the provider", snapshot);
+        assertEquals(321, snapshot.weatherId);
+        assertEquals(75.0, snapshot.maxTemp);
+        assertEquals(today, snapshot.date);
+
+        assertSame("Error: a second read should come from memory",
+                snapshot, TodaySnapshot.get(mContext));
+    }
+
+    public void testPublishedSnapshotIsReturnedWithoutQuery() {
+        TodaySnapshot published = new TodaySnapshot(TestUtilities.TEST_LOCATION,
+                WeatherContract.normalizeDate(System.currentTimeMillis()), 800, 20, 10);
+        TodaySnapshot.publish(published);
+        // The provider is empty, so only the published snapshot can be returned
+        assertSame(published, TodaySnapshot.get(mContext));
+    }
+
+    public void testSnapshotOfOtherLocationIsIgnored() {
+        TodaySnapshot.publish(new TodaySnapshot("elsewhere",
+                WeatherContract.normalizeDate(System.currentTimeMillis()), 800, 20, 10));
+        assertNull(TodaySnapshot.get(mContext));
+    }
+
+    public void testYesterdaysSnapshotIsIgnored() {
+        TodaySnapshot.publish(new TodaySnapshot(TestUtilities.TEST_LOCATION,
+                WeatherContract.normalizeDate(System.currentTimeMillis() - 24 * 60 * 60 * 1000),
+                800, 20, 10));
+        assertNull(TodaySnapshot.get(mContext));
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
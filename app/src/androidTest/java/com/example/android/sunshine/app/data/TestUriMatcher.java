@@ -54,4 +54,37 @@ public class TestUriMatcher extends AndroidTestCase {
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
     }
+
+    /*
+        Checks what the provider reads from each weather URI, which it keeps instead of parsing
+        the URI again on the next query.
+     */
+    public void testParseUri() {
+        long date = WeatherContract.normalizeDate(TEST_DATE);
+
+        ParsedUri parsed = WeatherProvider.parseUriUncached(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR);
+        assertEquals(WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE, parsed.match);
+        assertEquals(LOCATION_QUERY, parsed.locationSetting);
+        assertEquals(date, parsed.firstDate);
+        assertEquals(date, parsed.lastDate);
+        assertEquals(WeatherProvider.sLocationSettingAndDaySelection, parsed.selection);
+        assertEquals(2, parsed.selectionArgs.length);
+        assertEquals(Long.toString(date), parsed.selectionArgs[1]);
+
+        parsed = WeatherProvider.parseUriUncached(TEST_WEATHER_WITH_LOCATION_DIR);
+        assertEquals(WeatherProvider.sLocationSettingSelection, parsed.selection);
+        assertEquals("Error: a location without a start date covers every day",
+                0, parsed.firstDate);
+
+        parsed = WeatherProvider.parseUriUncached(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(LOCATION_QUERY,
+                        TEST_DATE));
+        assertEquals(WeatherProvider.sLocationSettingWithStartDateSelection, parsed.selection);
+        assertEquals(date, parsed.firstDate);
+        assertEquals(Long.MAX_VALUE, parsed.lastDate);
+
+        parsed = WeatherProvider.parseUriUncached(TEST_LOCATION_DIR);
+        assertEquals(WeatherProvider.LOCATION, parsed.match);
+        assertNull(parsed.selection);
+    }
 }
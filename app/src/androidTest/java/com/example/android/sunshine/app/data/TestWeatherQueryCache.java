@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestWeatherQueryCache extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private ContentProviderClient mClient;
+    private WeatherQueryCache mCache;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mCache = ((WeatherProvider) mClient.getLocalContentProvider()).getQueryCache();
+        deleteAllRecords();
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(mLocationId));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        mClient.release();
+        super.tearDown();
+    }
+
+    public void testRepeatedQueryIsCached() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        ContentValues expected = TestUtilities.createWeatherValues(mLocationId);
+
+        TestUtilities.validateCursor("Error: first query", query(uri), expected);
+        int hits = mCache.hitCount();
+        TestUtilities.validateCursor("Error: cached query", query(uri), expected);
+        assertEquals("Error: the second query should have been cached",
+                hits + 1, mCache.hitCount());
+    }
+
+    public void testWriteToOtherDayKeepsResult() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        query(uri).close();
+
+        insertWeather(TestUtilities.TEST_DATE + DAY_IN_MILLIS, 800);
+        int hits = mCache.hitCount();
+        query(uri).close();
+        assertEquals("Error: a write to another day dropped the cached day",
+                hits + 1, mCache.hitCount());
+    }
+
+    public void testWriteDropsResult() {
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        Uri listUri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        query(dayUri).close();
+        query(listUri).close();
+
+        ContentValues updated = insertWeather(TestUtilities.TEST_DATE, 800);
+        TestUtilities.validateCursor("Error: the cached day wasn't dropped", query(dayUri),
+                updated);
+
+        Cursor cursor = query(listUri);
+        assertEquals("Error: the cached list wasn't dropped", 1, cursor.getCount());
+        TestUtilities.validateCursor("Error: the cached list wasn't dropped", cursor, updated);
+    }
+
+    public void testCachedValuesReadLikeDatabaseValues() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        mCache.clear();
+        Cursor fromDatabase = query(uri);
+        Cursor fromCache = query(uri);
+        assertTrue(fromDatabase.moveToFirst());
+        assertTrue(fromCache.moveToFirst());
+        for (int column = 0; column < fromDatabase.getColumnCount(); column++) {
+            String name = fromDatabase.getColumnName(column);
+            assertEquals("Error: type of " + name, fromDatabase.getType(column),
+                    fromCache.getType(column));
+            assertEquals("Error: text of " + name, fromDatabase.getString(column),
+                    fromCache.getString(column));
+            assertEquals("Error: number of " + name, fromDatabase.getDouble(column),
+                    fromCache.getDouble(column), 0);
+        }
+        fromDatabase.close();
+        fromCache.close();
+    }
+
+    public void testCacheIsBoundedBySize() {
+        Uri listUri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        mCache.clear();
+        query(listUri).close();
+        assertTrue("Error: a one day list wasn't cached", mCache.size() > 0);
+        assertTrue("Error: a one day list takes " + mCache.size() + " bytes",
+                mCache.size() < 4 * 1024);
+
+        // Far more days than any screen shows
+        ContentValues[] values = new ContentValues[2000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = TestUtilities.createWeatherValues(mLocationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        Cursor cursor = query(listUri);
+        assertEquals(values.length, cursor.getCount());
+        cursor.close();
+        assertEquals("Error: a result too big to cache was cached", 0, mCache.size());
+        int hits = mCache.hitCount();
+        query(listUri).close();
+        assertEquals("Error: a result too big to cache was served from the cache",
+                hits, mCache.hitCount());
+    }
+
+    private ContentValues insertWeather(long date, int weatherId) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+        return values;
+    }
+
+    private Cursor query(Uri uri) {
+        return mContext.getContentResolver().query(uri, null, null, null, null);
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
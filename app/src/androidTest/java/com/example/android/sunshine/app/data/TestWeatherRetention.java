@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestWeatherRetention extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final String OTHER_LOCATION = "elsewhere";
+    private static final int OLD_DAYS = 500;
+
+    private String mSavedLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        mSavedLocation = prefs.getString(locationKey, null);
+        prefs.edit().putString(locationKey, TestUtilities.TEST_LOCATION).commit();
+        SettingsSnapshot.refresh(mContext);
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        if (mSavedLocation != null) {
+            editor.putString(locationKey, mSavedLocation);
+        } else {
+            editor.remove(locationKey);
+        }
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    public void testCompactionKeepsOnlyWhatThePoliciesKeep() {
+        // The preferred location with old days and today, and another location, unused for
+        // longer than locations are kept, with old days only
+        long preferredId = insertLocation(TestUtilities.TEST_LOCATION);
+        long otherId = insertLocation(OTHER_LOCATION, getUnusedTime());
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[2 * OLD_DAYS + 1];
+        for (int i = 0; i < OLD_DAYS; i++) {
+            values[2 * i] = createWeatherValues(preferredId, today - (i + 1) * DAY_IN_MILLIS);
+            values[2 * i + 1] = createWeatherValues(otherId, today - (i + 1) * DAY_IN_MILLIS);
+        }
+        values[2 * OLD_DAYS] = createWeatherValues(preferredId, today);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        Bundle report = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMPACT_DATABASE, null, null);
+
+        assertEquals(2 * OLD_DAYS, report.getInt(WeatherContract.KEY_ROW_COUNT));
+        assertEquals("Error: the unused location should be removed",
+                1, report.getInt(WeatherContract.KEY_LOCATION_COUNT));
+        assertTrue("Error: the database should shrink",
+                report.getLong(WeatherContract.KEY_SIZE_AFTER)
+                        < report.getLong(WeatherContract.KEY_SIZE_BEFORE));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(today, cursor.getLong(0));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(0));
+        cursor.close();
+    }
+
+    public void testPreferredLocationIsKeptWithoutWeather() {
+        insertLocation(TestUtilities.TEST_LOCATION, getUnusedTime());
+        Bundle report = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMPACT_DATABASE, null, null);
+        assertEquals(0, report.getInt(WeatherContract.KEY_LOCATION_COUNT));
+    }
+
+    public void testFormerPreferredLocationIsRemoved() {
+        // The location the user switched away from still has its current forecast, since the
+        // sync kept fetching it until it went unused for too long
+        long formerId = insertLocation(OTHER_LOCATION, getUnusedTime());
+        long preferredId = insertLocation(TestUtilities.TEST_LOCATION);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                createWeatherValues(formerId, today),
+                createWeatherValues(formerId, today + DAY_IN_MILLIS),
+                createWeatherValues(preferredId, today)
+        });
+
+        Bundle report = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMPACT_DATABASE, null, null);
+
+        assertEquals("Error: the former preferred location should be removed",
+                1, report.getInt(WeatherContract.KEY_LOCATION_COUNT));
+        assertEquals("Error: the weather of the removed location should go with it",
+                2, report.getInt(WeatherContract.KEY_ROW_COUNT));
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(0));
+        cursor.close();
+    }
+
+    public void testRecentlyUsedLocationIsKept() {
+        // It has no weather, which doesn't make it unused
+        insertLocation(TestUtilities.TEST_LOCATION);
+        insertLocation(OTHER_LOCATION, System.currentTimeMillis() - DAY_IN_MILLIS);
+        Bundle report = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMPACT_DATABASE, null, null);
+        assertEquals("Error: a location used within the retention period should be kept",
+                0, report.getInt(WeatherContract.KEY_LOCATION_COUNT));
+    }
+
+    public void testCompactionTurnsOnIncrementalVacuum() {
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMPACT_DATABASE, null, null);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        assertEquals(2, DatabaseUtils.longForQuery(dbHelper.getReadableDatabase(),
+                "PRAGMA auto_vacuum", null));
+        dbHelper.close();
+    }
+
+    // Inserted now, so it counts as used now
+    private long insertLocation(String locationSetting) {
+        return insertLocation(locationSetting, System.currentTimeMillis());
+    }
+
+    private long insertLocation(String locationSetting, long lastUsed) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_LAST_USED, lastUsed);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    // A time of last use just past the retention of unused locations
+    private static long getUnusedTime() {
+        return System.currentTimeMillis()
+                - (WeatherRetention.UNUSED_DAYS_TO_KEEP_LOCATION + 1) * DAY_IN_MILLIS;
+    }
+
+    private static ContentValues createWeatherValues(long locationId, long date) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        return values;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
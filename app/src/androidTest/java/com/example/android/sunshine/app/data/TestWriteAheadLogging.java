@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that the database runs with write-ahead logging, and that provider reads don't wait
+    for a write transaction that is still open.
+ */
+public class TestWriteAheadLogging extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWriteAheadLogging.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    // How long the writer keeps its transaction open after inserting
+    private static final long WRITE_HOLD_MILLIS = 1000;
+    private static final int WRITE_ROWS = 2000;
+    private static final int READS = 20;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testJournalModeIsWal() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+        dbHelper.close();
+    }
+
+    public void testReadsDontWaitForWrites() throws Exception {
+        final long locationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationId));
+
+        final WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch readsDone = new CountDownLatch(1);
+        Thread writer = new Thread("TestWriteAheadLogging writer") {
+            @Override
+            public void run() {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                db.beginTransactionNonExclusive();
+                try {
+                    for (int i = 1; i <= WRITE_ROWS; i++) {
+                        ContentValues values = TestUtilities.createWeatherValues(locationId);
+                        values.put(WeatherEntry.COLUMN_DATE,
+                                TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+                        db.insert(WeatherEntry.TABLE_NAME, null, values);
+                    }
+                    written.countDown();
+                    readsDone.await(WRITE_HOLD_MILLIS, TimeUnit.MILLISECONDS);
+                    db.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    // give up, the test will fail on the row count
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        };
+        writer.start();
+        assertTrue(written.await(30, TimeUnit.SECONDS));
+
+        long worstNanos = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < READS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                    null, null, null, null);
+            assertNotNull(cursor);
+            assertEquals("Error: a reader shouldn't see rows of an open transaction",
+                    1, cursor.getCount());
+            cursor.close();
+            long nanos = SystemClock.elapsedRealtimeNanos() - start;
+            worstNanos = Math.max(worstNanos, nanos);
+            totalNanos += nanos;
+        }
+        readsDone.countDown();
+        writer.join();
+        dbHelper.close();
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Reads during a %d row write: mean %.2f ms, worst %.2f ms",
+                WRITE_ROWS, totalNanos / 1e6 / READS, worstNanos / 1e6));
+        assertTrue("Error: a read waited for the write transaction",
+                worstNanos < TimeUnit.MILLISECONDS.toNanos(WRITE_HOLD_MILLIS / 2));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(WRITE_ROWS + 1, cursor.getCount());
+        cursor.close();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
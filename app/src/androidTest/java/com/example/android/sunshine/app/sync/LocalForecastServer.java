@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A tiny HTTP/1.1 server on the loopback interface that stands in for the forecast server in
+    tests.  It keeps connections alive, answers every GET with the configured body after the
+    configured latency, gzips it when the client asks for it, and counts the connections and
+    requests it has seen.
+ */
+public class LocalForecastServer {
+
+    private final ServerSocket mServerSocket;
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private volatile byte[] mBody = "{}".getBytes();
+    private volatile long mLatencyMillis;
+    private volatile int mMaxAgeSeconds;
+    private volatile int mStatus = 200;
+    private volatile boolean mClosed;
+
+    public LocalForecastServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread("LocalForecastServer") {
+            @Override
+            public void run() {
+                while (!mClosed) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        mConnectionCount.incrementAndGet();
+                        new Thread("LocalForecastServer connection") {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }.start();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        };
+        acceptThread.start();
+    }
+
+    public URL getUrl(String path) throws IOException {
+        return new URL(String.format(Locale.US, "http://127.0.0.1:%d%s",
+                mServerSocket.getLocalPort(), path));
+    }
+
+    public void setBody(String body) throws IOException {
+        mBody = body.getBytes("UTF-8");
+    }
+
+    /*
+        Serves a generated forecast of the given number of days, shaped like a recorded one.
+     */
+    public void setForecastDays(int numDays) throws IOException {
+        setBody(TestForecastJsonParser.createForecastJson(numDays));
+    }
+
+    /*
+        Delays every response, to stand in for the round trip to a real server.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /*
+        Answers with the given HTTP status, 200 by default.  The body is sent whatever the status.
+     */
+    public void setStatus(int status) {
+        mStatus = status;
+    }
+
+    /*
+        Lets clients reuse every response for the given number of seconds.  Zero, the default,
+        sends no Cache-Control header.
+     */
+    public void setMaxAgeSeconds(int maxAgeSeconds) {
+        mMaxAgeSeconds = maxAgeSeconds;
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public void shutdown() throws IOException {
+        mClosed = true;
+        mServerSocket.close();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String request;
+            while ((request = readRequestHead(in)) != null) {
+                mRequestCount.incrementAndGet();
+                if (mLatencyMillis > 0) {
+                    Thread.sleep(mLatencyMillis);
+                }
+                boolean gzip = request.toLowerCase(Locale.US).contains("accept-encoding: gzip");
+                byte[] body = gzip ? gzip(mBody) : mBody;
+                StringBuilder head = new StringBuilder()
+                        .append("HTTP/1.1 ").append(mStatus).append(' ')
+                        .append(mStatus == 200 ? "OK" : mStatus == 404 ? "Not Found" : "Error")
+                        .append("\r\n")
+                        .append("Content-Type: application/json; charset=utf-8\r\n")
+                        .append("Content-Length: ").append(body.length).append("\r\n")
+                        .append("Connection: keep-alive\r\n");
+                if (gzip) {
+                    head.append("Content-Encoding: gzip\r\n");
+                }
+                if (mMaxAgeSeconds > 0) {
+                    head.append("Cache-Control: max-age=").append(mMaxAgeSeconds).append("\r\n");
+                }
+                head.append("\r\n");
+                out.write(head.toString().getBytes("US-ASCII"));
+                out.write(body);
+                out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            // client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /*
+        Reads the request line and headers, up to the blank line.  Returns null at end of stream.
+     */
+    private static String readRequestHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            head.write(b);
+            if ((matched % 2 == 0 && b == '\r') || (matched % 2 == 1 && b == '\n')) {
+                if (++matched == 4) {
+                    return head.toString("US-ASCII");
+                }
+            } else {
+                matched = b == '\r' ? 1 : 0;
+            }
+        }
+        return null;
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(data);
+        gzip.close();
+        return bytes.toByteArray();
+    }
+}
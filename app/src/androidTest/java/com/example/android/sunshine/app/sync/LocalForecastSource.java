@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+    A forecast source backed by a LocalForecastServer, which serves OpenWeatherMap shaped
+    payloads, so the sync pipeline can run without the network.
+ */
+public class LocalForecastSource implements ForecastSource {
+
+    private final Uri mBaseUri;
+
+    public LocalForecastSource(LocalForecastServer server) throws IOException {
+        mBaseUri = Uri.parse(server.getUrl("/forecast/daily").toString());
+    }
+
+    @Override
+    public Uri getForecastUri(String locationSetting) {
+        return mBaseUri.buildUpon().appendQueryParameter("q", locationSetting).build();
+    }
+
+    @Override
+    public ForecastJsonParser.Forecast parse(InputStream in, int julianStartDay)
+            throws IOException, JSONException {
+        return ForecastJsonParser.parse(in, julianStartDay);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentProviderClient;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/*
+    Drives the circuit breaker with a fake clock: every test passes its own notion of "now".
+    The last test runs the sync adapter against a LocalForecastServer instead.
+ */
+public class TestCircuitBreaker extends AndroidTestCase {
+
+    private static final long MINUTE = 60 * 1000;
+
+    // Always picks the middle of the jitter range, so the backoff is predictable
+    private static class FixedRandom extends Random {
+        @Override
+        public double nextDouble() {
+            return 0.5;
+        }
+    }
+
+    private static long expectedBackoff(long backoff) {
+        return backoff - (long) (backoff * CircuitBreaker.JITTER / 2);
+    }
+
+    public void testOpensAfterThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(new FixedRandom());
+        long now = 0;
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            assertTrue(breaker.allowRequest(now));
+            breaker.onFailure(now);
+            assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        }
+        breaker.onFailure(now);
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertFalse("Error: an open breaker shouldn't let requests through",
+                breaker.allowRequest(now + MINUTE));
+        assertEquals(expectedBackoff(CircuitBreaker.BASE_BACKOFF_MILLIS), breaker.getOpenUntil());
+    }
+
+    public void testHalfOpenClosesOnSuccess() {
+        CircuitBreaker breaker = openBreaker(0);
+        long due = breaker.getOpenUntil();
+
+        assertTrue(breaker.allowRequest(due));
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertEquals(0, breaker.getOpenUntil());
+
+        // A single failure after recovering doesn't open it again
+        breaker.onFailure(due);
+        assertTrue(breaker.allowRequest(due));
+    }
+
+    public void testBackoffGrowsUntilCapped() {
+        CircuitBreaker breaker = openBreaker(0);
+        long now = breaker.getOpenUntil();
+        long backoff = CircuitBreaker.BASE_BACKOFF_MILLIS;
+        while (backoff < CircuitBreaker.MAX_BACKOFF_MILLIS) {
+            backoff = Math.min(backoff * 2, CircuitBreaker.MAX_BACKOFF_MILLIS);
+            // the trial request of a half open breaker fails
+            assertTrue(breaker.allowRequest(now));
+            breaker.onFailure(now);
+            assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+            assertEquals(now + expectedBackoff(backoff), breaker.getOpenUntil());
+            now = breaker.getOpenUntil();
+        }
+    }
+
+    public void testJitterStaysInRange() {
+        CircuitBreaker breaker = new CircuitBreaker(new Random(42));
+        for (int i = 0; i < 100; i++) {
+            long backoff = breaker.getBackoff(1);
+            long full = CircuitBreaker.BASE_BACKOFF_MILLIS * 2;
+            assertTrue(backoff >= full - (long) (full * CircuitBreaker.JITTER));
+            assertTrue(backoff <= full);
+        }
+    }
+
+    public void testSurvivesPreferenceRoundTrip() {
+        CircuitBreaker breaker = openBreaker(5 * MINUTE);
+        CircuitBreaker restored =
+                CircuitBreaker.fromPreference(breaker.toPreference(), new FixedRandom());
+        assertEquals(breaker.getState(), restored.getState());
+        assertEquals(breaker.getOpenUntil(), restored.getOpenUntil());
+
+        assertEquals(CircuitBreaker.STATE_CLOSED,
+                CircuitBreaker.fromPreference("garbage", new FixedRandom()).getState());
+        assertEquals(CircuitBreaker.STATE_CLOSED,
+                CircuitBreaker.fromPreference(null, new FixedRandom()).getState());
+    }
+
+    public void testNotFoundDoesNotOpenBreaker() throws Exception {
+        final String locationSetting = "not-found";
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String breakerKey = SunshineSyncAdapter.getCircuitBreakerKey(mContext, locationSetting);
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        String savedLocation = prefs.getString(locationKey, null);
+        prefs.edit().putString(locationKey, locationSetting).remove(breakerKey).commit();
+        SettingsSnapshot.refresh(mContext);
+
+        LocalForecastServer server = new LocalForecastServer();
+        server.setStatus(HttpURLConnection.HTTP_NOT_FOUND);
+        server.setBody(TestForecastJsonParser.NOT_FOUND_FORECAST);
+        SunshineSyncAdapter syncAdapter =
+                new SunshineSyncAdapter(mContext, false, new LocalForecastSource(server));
+        Account account = new Account(mContext.getString(R.string.app_name),
+                mContext.getString(R.string.sync_account_type));
+        ContentProviderClient provider = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+                SyncResult syncResult = new SyncResult();
+                syncAdapter.onPerformSync(account, new Bundle(),
+                        WeatherContract.CONTENT_AUTHORITY, provider, syncResult);
+                assertEquals("Error: an unknown city was counted as an IO failure",
+                        0, syncResult.stats.numIoExceptions);
+            }
+            assertEquals("Error: every sync should have asked the server",
+                    CircuitBreaker.FAILURE_THRESHOLD, server.getRequestCount());
+            assertEquals(CircuitBreaker.STATE_CLOSED, CircuitBreaker.fromPreference(
+                    prefs.getString(breakerKey, null), new FixedRandom()).getState());
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                    Utility.getLocationStatus(mContext, locationSetting));
+        } finally {
+            provider.release();
+            server.shutdown();
+            SharedPreferences.Editor editor = prefs.edit()
+                    .remove(breakerKey)
+                    .remove(Utility.getLocationStatusKey(mContext, locationSetting));
+            if (savedLocation != null) {
+                editor.putString(locationKey, savedLocation);
+            } else {
+                editor.remove(locationKey);
+            }
+            editor.commit();
+            SettingsSnapshot.refresh(mContext);
+        }
+    }
+
+    private static CircuitBreaker openBreaker(long now) {
+        CircuitBreaker breaker = new CircuitBreaker(new FixedRandom());
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onFailure(now);
+        }
+        return breaker;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Locale;
+
+/*
+    Checks that the streaming and DOM forecast parsers agree, and compares how long each of them
+    takes on the same payloads.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int JULIAN_START_DAY = 2457000;
+
+    // A two day response as recorded from the OpenWeatherMap daily forecast API.
+    static final String RECORDED_FORECAST = "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\"," +
+            "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\",\"population\":0}," +
+            "\"cod\":\"200\",\"message\":0.0124,\"cnt\":2,\"list\":[" +
+            "{\"dt\":1419033600,\"temp\":{\"day\":13.62,\"min\":8.05,\"max\":14.31,\"night\":8.05," +
+            "\"eve\":12.73,\"morn\":11.16},\"pressure\":1013.81,\"humidity\":89," +
+            "\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}]," +
+            "\"speed\":1.96,\"deg\":206,\"clouds\":92,\"rain\":0.86}," +
+            "{\"dt\":1419120000,\"temp\":{\"day\":12.15,\"min\":6.37,\"max\":13.04,\"night\":6.37," +
+            "\"eve\":11.02,\"morn\":9.44},\"pressure\":1018.2,\"humidity\":84," +
+            "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}]," +
+            "\"speed\":1.41,\"deg\":333,\"clouds\":0}]}";
+
+    static final String NOT_FOUND_FORECAST =
+            "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    /*
+        Builds a response shaped like the recorded one, with the given number of days.
+     */
+    static String createForecastJson(int numDays) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\"},")
+                .append("\"cod\":\"200\",\"message\":0.0124,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,\"night\":8.05," +
+                            "\"eve\":12.73,\"morn\":11.16},\"pressure\":%.2f,\"humidity\":%d," +
+                            "\"weather\":[{\"id\":%d,\"main\":\"Rain\",\"description\":\"light rain\"," +
+                            "\"icon\":\"10d\"}],\"speed\":%.2f,\"deg\":%d,\"clouds\":92,\"rain\":0.86}",
+                    1419033600L + i * 86400L, 10 + (i % 7), 5 + (i % 5), 15 + (i % 9),
+                    1000 + (i % 30) + 0.5, 40 + (i % 50), 500 + (i % 5), 1 + (i % 10) * 0.3,
+                    (i * 37) % 360));
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private static InputStream asStream(String json) throws Exception {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testParsersAgreeOnRecordedForecast() throws Exception {
+        ForecastJsonParser.Forecast streamed =
+                ForecastJsonParser.parse(asStream(RECORDED_FORECAST), JULIAN_START_DAY);
+        ForecastJsonParser.Forecast dom =
+                ForecastJsonParser.parse(RECORDED_FORECAST, JULIAN_START_DAY);
+
+        assertEquals("Mountain View", streamed.cityName);
+        assertEquals(37.386051, streamed.cityLatitude, 1e-9);
+        assertEquals(-122.083847, streamed.cityLongitude, 1e-9);
+        assertEquals(2, streamed.days.size());
+
+        assertSameForecast(dom, streamed);
+
+        ContentValues first = streamed.days.get(0);
+        assertEquals(500, (int) first.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals(14.3, WeatherContract.WeatherEntry.decodeTemperature(
+                first.getAsInteger(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)), 1e-9);
+        int wind = first.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WIND);
+        assertEquals(2.0, WeatherContract.WeatherEntry.decodeWindSpeed(wind), 1e-9);
+        assertEquals(206, WeatherContract.WeatherEntry.decodeWindDirection(wind));
+    }
+
+    public void testNotFoundForecast() throws Exception {
+        ForecastJsonParser.Forecast streamed =
+                ForecastJsonParser.parse(asStream(NOT_FOUND_FORECAST), JULIAN_START_DAY);
+        assertEquals(404, streamed.code);
+        assertEquals(0, streamed.days.size());
+    }
+
+    public void testMalformedForecastIsReportedAsJsonError() throws Exception {
+        String truncated = RECORDED_FORECAST.substring(0, RECORDED_FORECAST.indexOf("\"weather\""))
+                + "\"weather\":{}}]}";
+        try {
+            ForecastJsonParser.parse(asStream(truncated), JULIAN_START_DAY);
+            fail("Error: a malformed forecast should throw a JSONException");
+        } catch (JSONException expected) {
+            // good
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs the time each parser takes on the same payload so the two
+        ingestion paths can be compared on a real device.
+     */
+    public void testParserBenchmark() throws Exception {
+        final int[] sizes = {14, 16 * 10, 16 * 100};
+        final int iterations = 20;
+        for (int numDays : sizes) {
+            String json = createForecastJson(numDays);
+            byte[] bytes = json.getBytes("UTF-8");
+
+            // warm up both paths, and check that they agree on the generated payload
+            assertSameForecast(ForecastJsonParser.parse(json, JULIAN_START_DAY),
+                    ForecastJsonParser.parse(new ByteArrayInputStream(bytes), JULIAN_START_DAY));
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < iterations; i++) {
+                // The DOM path has to turn the bytes into a String first, just like the old sync
+                ForecastJsonParser.parse(new String(bytes, "UTF-8"), JULIAN_START_DAY);
+            }
+            long domNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < iterations; i++) {
+                ForecastJsonParser.parse(new ByteArrayInputStream(bytes), JULIAN_START_DAY);
+            }
+            long streamNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%d days (%d bytes): dom %.2f ms, streaming %.2f ms per parse",
+                    numDays, bytes.length,
+                    domNanos / 1e6 / iterations, streamNanos / 1e6 / iterations));
+        }
+    }
+
+    static void assertSameForecast(ForecastJsonParser.Forecast expected,
+                                   ForecastJsonParser.Forecast actual) {
+        assertEquals(expected.code, actual.code);
+        assertEquals(expected.cityName, actual.cityName);
+        assertEquals(expected.cityLatitude, actual.cityLatitude, 1e-9);
+        assertEquals(expected.cityLongitude, actual.cityLongitude, 1e-9);
+        assertEquals(expected.days.size(), actual.days.size());
+        for (int i = 0; i < expected.days.size(); i++) {
+            assertEquals("Error: row " + i + " differs between the parsers",
+                    expected.days.get(i), actual.days.get(i));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+public class TestForecastTransport extends AndroidTestCase {
+
+    private LocalForecastServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalForecastServer();
+        mServer.setBody(TestForecastJsonParser.createForecastJson(16));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private String fetch(ForecastTransport transport, String path) throws Exception {
+        HttpURLConnection urlConnection = transport.open(mServer.getUrl(path));
+        InputStream body = null;
+        try {
+            transport.connect(urlConnection);
+            assertEquals(HttpURLConnection.HTTP_OK, urlConnection.getResponseCode());
+            body = transport.getInputStream(urlConnection);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            transport.release(urlConnection, body);
+        }
+    }
+
+    public void testGzipBodyIsDecoded() throws Exception {
+        ForecastTransport transport = new ForecastTransport();
+        String expected = TestForecastJsonParser.createForecastJson(16);
+
+        assertEquals("Error: the transport didn't decode the gzipped body",
+                expected, fetch(transport, "/forecast?q=1"));
+
+        long compressedSize = LocalForecastServer.gzip(expected.getBytes("UTF-8")).length;
+        assertEquals(compressedSize, transport.getBytesReceived());
+        assertEquals(expected.getBytes("UTF-8").length, transport.getBytesDecoded());
+        assertTrue("Error: gzip should shrink a forecast response",
+                transport.getBytesReceived() < transport.getBytesDecoded());
+    }
+
+    public void testConnectionIsReused() throws Exception {
+        ForecastTransport transport = new ForecastTransport();
+        final int requests = 5;
+        for (int i = 0; i < requests; i++) {
+            fetch(transport, "/forecast?q=" + i);
+        }
+        assertEquals(requests, mServer.getRequestCount());
+        assertEquals(requests, transport.getRequestCount());
+        assertEquals("Error: sequential requests should share one pooled connection",
+                1, mServer.getConnectionCount());
+    }
+}
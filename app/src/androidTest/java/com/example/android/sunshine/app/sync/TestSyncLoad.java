@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Locale;
+
+/*
+    Load harness for the whole sync pipeline: the sync adapter fetches N locations of M days
+    each from a LocalForecastServer, writes them through the provider and fans out to widgets,
+    Muzei, the notification and the watch.  Every run is done twice: a cold sync that writes
+    everything, then a warm sync of the same payloads that finds nothing changed.
+
+    Not a pass/fail benchmark: it logs throughput, latency and the per-stage SyncMetrics so that
+    runs can be compared between builds on the same device.
+ */
+public class TestSyncLoad extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncLoad.class.getSimpleName();
+
+    // Round trip the stand-in server adds to every request
+    private static final long LATENCY_MILLIS = 50;
+
+    private LocalForecastServer mServer;
+    private String mSavedLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalForecastServer();
+        mServer.setLatencyMillis(LATENCY_MILLIS);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedLocation = prefs.getString(mContext.getString(R.string.pref_location_key), null);
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteAllRecords();
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        if (mSavedLocation != null) {
+            editor.putString(locationKey, mSavedLocation);
+        } else {
+            editor.remove(locationKey);
+        }
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    public void testSyncLoad() throws Exception {
+        final int[][] runs = {{1, 14}, {10, 14}, {50, 14}, {10, 60}};
+        for (int[] run : runs) {
+            runSync(run[0], run[1]);
+            deleteAllRecords();
+        }
+    }
+
+    private void runSync(int numLocations, int numDays) throws Exception {
+        mServer.setForecastDays(numDays);
+
+        // Track exactly numLocations locations, the first of them being the preferred one
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), locationSetting(0))
+                .commit();
+        SettingsSnapshot.refresh(mContext);
+        for (int i = 0; i < numLocations; i++) {
+            mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI,
+                    SunshineSyncAdapter.createLocationValues(locationSetting(i),
+                            "Load " + i, 37.0 + i * 0.01, -122.0));
+        }
+
+        SunshineSyncAdapter syncAdapter =
+                new SunshineSyncAdapter(mContext, false, new LocalForecastSource(mServer));
+        Account account = new Account(mContext.getString(R.string.app_name),
+                mContext.getString(R.string.sync_account_type));
+        ContentProviderClient provider = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            for (String pass : new String[]{"cold", "warm"}) {
+                SyncMetrics.getInstance().reset();
+                SyncResult syncResult = new SyncResult();
+
+                long start = SystemClock.elapsedRealtimeNanos();
+                syncAdapter.onPerformSync(account, new Bundle(),
+                        WeatherContract.CONTENT_AUTHORITY, provider, syncResult);
+                long nanos = SystemClock.elapsedRealtimeNanos() - start;
+
+                assertFalse("Error: the " + pass + " sync failed: " + syncResult,
+                        syncResult.hasError());
+                assertEquals("Error: the " + pass + " sync didn't store every day",
+                        numLocations * numDays, countWeatherRows());
+
+                double seconds = nanos / 1e9;
+                Log.i(LOG_TAG, String.format(Locale.US,
+                        "%s sync of %d locations x %d days: %.1f ms, %.1f locations/s, " +
+                                "%.0f days/s\n%s",
+                        pass, numLocations, numDays, nanos / 1e6, numLocations / seconds,
+                        numLocations * numDays / seconds, SyncMetrics.getInstance()));
+            }
+        } finally {
+            provider.release();
+        }
+    }
+
+    private static String locationSetting(int i) {
+        return "load-" + i;
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
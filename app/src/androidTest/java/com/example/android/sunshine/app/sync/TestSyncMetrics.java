@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.net.HttpURLConnection;
+
+public class TestSyncMetrics extends AndroidTestCase {
+
+    private static final long MILLI = 1000 * 1000;
+
+    public void testPercentilesCoverRecentWindowOnly() {
+        SyncMetrics metrics = new SyncMetrics();
+        // An early slow sample that should fall out of the window
+        metrics.record(SyncMetrics.STAGE_PARSE, 1000 * MILLI, 14);
+        for (int i = 1; i <= SyncMetrics.WINDOW; i++) {
+            metrics.record(SyncMetrics.STAGE_PARSE, i * MILLI, 14);
+        }
+
+        Bundle parse = metrics.toBundle().getBundle("parse");
+        assertNotNull("Error: a stage that ran should be in the dump", parse);
+        assertEquals(SyncMetrics.WINDOW + 1, parse.getLong(SyncMetrics.KEY_COUNT));
+        assertEquals(14 * (SyncMetrics.WINDOW + 1), parse.getLong(SyncMetrics.KEY_VALUE_TOTAL));
+        assertEquals(SyncMetrics.WINDOW * 1000, parse.getLong(SyncMetrics.KEY_MAX_MICROS));
+        assertEquals(SyncMetrics.WINDOW / 2 * 1000, parse.getLong(SyncMetrics.KEY_P50_MICROS));
+
+        assertNull("Error: a stage that never ran shouldn't be in the dump",
+                metrics.toBundle().getBundle("watch"));
+    }
+
+    public void testTransportRecordsConnectAndDownload() throws Exception {
+        LocalForecastServer server = new LocalForecastServer();
+        try {
+            server.setBody(TestForecastJsonParser.RECORDED_FORECAST);
+            SyncMetrics metrics = new SyncMetrics();
+            ForecastTransport transport = new ForecastTransport(metrics);
+            HttpURLConnection urlConnection = transport.open(server.getUrl("/forecast"));
+            transport.connect(urlConnection);
+            transport.release(urlConnection, transport.getInputStream(urlConnection));
+
+            assertEquals(1, metrics.getCount(SyncMetrics.STAGE_CONNECT));
+            assertEquals(1, metrics.getCount(SyncMetrics.STAGE_DOWNLOAD));
+            assertEquals(transport.getBytesReceived(),
+                    metrics.toBundle().getBundle("download").getLong(SyncMetrics.KEY_VALUE_TOTAL));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testProviderDumpsMetrics() {
+        SyncMetrics.getInstance().record(SyncMetrics.STAGE_SYNC, 5 * MILLI, 1);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_SYNC_METRICS, null, null);
+        assertNotNull(result);
+        assertTrue(result.getString(SyncMetrics.KEY_DUMP).contains("sync"));
+        assertTrue(result.getBundle("sync").getLong(SyncMetrics.KEY_COUNT) > 0);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Runs the sync schedule policy against simulated days and checks how many syncs each kind of
+    day ends up with.  The old fixed three hour interval always gave 8 syncs a day.
+ */
+public class TestSyncSchedulePolicy extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncSchedulePolicy.class.getSimpleName();
+
+    private static final long HOUR = SyncSchedulePolicy.HOUR_IN_MILLIS;
+    private static final long DAY = 24 * HOUR;
+    private static final int FORECAST_DAYS = 14;
+    private static final int FIXED_SYNCS_PER_DAY = (int) (DAY / 1000 / SunshineSyncAdapter.SYNC_INTERVAL);
+    // Returned by a scenario for a sync that is answered by a 304 or a fresh cached response
+    private static final int NOT_MODIFIED = -1;
+
+    /*
+        What the device and the weather look like at a given time of the simulated day.
+     */
+    interface Scenario {
+        // How many of the forecast days a sync at this time finds changed, or NOT_MODIFIED
+        int getChangedDays(long time);
+        // The device state at this time; volatility is filled in by the harness
+        SyncSchedulePolicy.Signals getSignals(long time);
+    }
+
+    /*
+        Syncs according to the policy over one day, after a day of warm-up so that the volatility
+        has settled, and returns the number of syncs in the measured day.
+     */
+    static int simulateDay(Scenario scenario) {
+        return simulateDay(scenario, true);
+    }
+
+    /*
+        As above; when countNotModified is false, an unchanged response reports no days fetched,
+        which is how the sync adapter used to report it.
+     */
+    static int simulateDay(Scenario scenario, boolean countNotModified) {
+        SyncSchedulePolicy policy = new SyncSchedulePolicy(SunshineSyncAdapter.SYNC_INTERVAL);
+        double volatility = 0;
+        int syncs = 0;
+        for (long time = 0; time < 2 * DAY; ) {
+            int changedDays = scenario.getChangedDays(time);
+            if (changedDays == NOT_MODIFIED) {
+                volatility = SyncSchedulePolicy.updateVolatility(volatility, 0,
+                        countNotModified ? FORECAST_DAYS : 0);
+            } else {
+                volatility = SyncSchedulePolicy.updateVolatility(volatility, changedDays,
+                        FORECAST_DAYS);
+            }
+            if (time >= DAY) {
+                syncs++;
+            }
+            SyncSchedulePolicy.Signals signals = scenario.getSignals(time);
+            signals.volatility = volatility;
+            time += policy.getInterval(signals) * 1000L;
+        }
+        return syncs;
+    }
+
+    private static boolean isNight(long time) {
+        long hourOfDay = (time % DAY) / HOUR;
+        return hourOfDay < 7 || hourOfDay >= 23;
+    }
+
+    public void testQuietWeatherSyncsLessThanFixedInterval() {
+        // Stable weather; the phone charges overnight and the app is opened once in the morning
+        int syncs = simulateDay(new Scenario() {
+            @Override
+            public int getChangedDays(long time) {
+                return isNight(time) ? 0 : 1;
+            }
+
+            @Override
+            public SyncSchedulePolicy.Signals getSignals(long time) {
+                SyncSchedulePolicy.Signals signals = new SyncSchedulePolicy.Signals();
+                long timeOfDay = time % DAY;
+                signals.sinceLastViewedMillis = timeOfDay >= 8 * HOUR
+                        ? timeOfDay - 8 * HOUR
+                        : timeOfDay + 16 * HOUR;
+                signals.charging = isNight(time);
+                signals.batteryLevel = 0.6f;
+                return signals;
+            }
+        });
+        Log.i(LOG_TAG, "Quiet day: " + syncs + " syncs");
+        assertTrue("Error: a quiet day should sync less than the fixed interval, got " + syncs,
+                syncs < FIXED_SYNCS_PER_DAY);
+    }
+
+    public void testActiveWeatherSyncsMoreThanFixedInterval() {
+        // A storm is moving through and the user keeps checking the app
+        int syncs = simulateDay(new Scenario() {
+            @Override
+            public int getChangedDays(long time) {
+                return FORECAST_DAYS / 2 + 2;
+            }
+
+            @Override
+            public SyncSchedulePolicy.Signals getSignals(long time) {
+                SyncSchedulePolicy.Signals signals = new SyncSchedulePolicy.Signals();
+                signals.sinceLastViewedMillis = isNight(time) ? 8 * HOUR : 30 * 60 * 1000;
+                signals.batteryLevel = 0.8f;
+                return signals;
+            }
+        });
+        Log.i(LOG_TAG, "Active day: " + syncs + " syncs");
+        assertTrue("Error: an active day should sync more than the fixed interval, got " + syncs,
+                syncs > FIXED_SYNCS_PER_DAY);
+    }
+
+    public void testRunOfNotModifiedSyncsLengthensInterval() {
+        // A storm passes on the first day; every sync of the measured day gets a 304
+        Scenario scenario = new Scenario() {
+            @Override
+            public int getChangedDays(long time) {
+                return time < DAY ? FORECAST_DAYS / 2 + 2 : NOT_MODIFIED;
+            }
+
+            @Override
+            public SyncSchedulePolicy.Signals getSignals(long time) {
+                SyncSchedulePolicy.Signals signals = new SyncSchedulePolicy.Signals();
+                signals.sinceLastViewedMillis = 2 * HOUR;
+                signals.batteryLevel = 0.8f;
+                return signals;
+            }
+        };
+        int counted = simulateDay(scenario, true);
+        int dropped = simulateDay(scenario, false);
+        Log.i(LOG_TAG, "Day of 304s: " + counted + " syncs, " + dropped
+                + " when they report nothing fetched");
+        assertTrue("Error: a run of unchanged responses should sync less than one whose volatility"
+                + " never decays, got " + counted + " and " + dropped, counted < dropped);
+    }
+
+    public void testLowBatteryBacksOff() {
+        SyncSchedulePolicy policy = new SyncSchedulePolicy(SunshineSyncAdapter.SYNC_INTERVAL);
+        SyncSchedulePolicy.Signals signals = new SyncSchedulePolicy.Signals();
+        signals.volatility = 0.3;
+        signals.sinceLastViewedMillis = 2 * HOUR;
+        int normal = policy.getInterval(signals);
+
+        signals.batteryLevel = 0.1f;
+        assertTrue(policy.getInterval(signals) > normal);
+
+        signals.charging = true;
+        assertTrue(policy.getInterval(signals) < normal);
+    }
+
+    public void testRecentPushDefersPeriodicSync() {
+        SyncSchedulePolicy policy = new SyncSchedulePolicy(SunshineSyncAdapter.SYNC_INTERVAL);
+        SyncSchedulePolicy.Signals signals = new SyncSchedulePolicy.Signals();
+        signals.volatility = 0.3;
+        signals.sinceLastViewedMillis = 2 * HOUR;
+        int normal = policy.getInterval(signals);
+
+        signals.sincePushRefreshMillis = HOUR;
+        assertTrue(policy.getInterval(signals) > normal);
+    }
+
+    public void testIntervalStaysWithinBounds() {
+        SyncSchedulePolicy policy = new SyncSchedulePolicy(SunshineSyncAdapter.SYNC_INTERVAL);
+        SyncSchedulePolicy.Signals busiest = new SyncSchedulePolicy.Signals();
+        busiest.volatility = 1;
+        busiest.sinceLastViewedMillis = 0;
+        busiest.charging = true;
+        assertEquals(SyncSchedulePolicy.MIN_INTERVAL, policy.getInterval(busiest));
+
+        SyncSchedulePolicy.Signals idlest = new SyncSchedulePolicy.Signals();
+        idlest.batteryLevel = 0.05f;
+        idlest.sincePushRefreshMillis = 0;
+        assertEquals(SyncSchedulePolicy.MAX_INTERVAL, policy.getInterval(idlest));
+    }
+}
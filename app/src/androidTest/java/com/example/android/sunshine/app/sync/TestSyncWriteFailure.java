@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/*
+    Checks that a forecast whose write fails is fetched and written again by the next sync,
+    rather than being taken from the response cache as unchanged.
+ */
+public class TestSyncWriteFailure extends AndroidTestCase {
+
+    private static final String LOCATION_SETTING = "write-failure";
+    private static final int NUM_DAYS = 14;
+
+    private LocalForecastServer mServer;
+    private String mSavedLocation;
+
+    /*
+        The real provider, except that its batches can be made to fail.
+     */
+    static class FailingWeatherProvider extends WeatherProvider {
+        volatile boolean failBatches;
+
+        @Override
+        public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            if (failBatches) {
+                throw new OperationApplicationException("Failing batch for the test");
+            }
+            return super.applyBatch(operations);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalForecastServer();
+        mServer.setForecastDays(NUM_DAYS);
+        // Without the fix, the second sync would find this response fresh and skip it
+        mServer.setMaxAgeSeconds(3600);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedLocation = prefs.getString(mContext.getString(R.string.pref_location_key), null);
+        deleteAllRecords();
+        new ForecastResponseCache(new File(mContext.getCacheDir(),
+                SunshineSyncAdapter.FORECAST_CACHE_DIR)).clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteAllRecords();
+        new ForecastResponseCache(new File(mContext.getCacheDir(),
+                SunshineSyncAdapter.FORECAST_CACHE_DIR)).clear();
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        if (mSavedLocation != null) {
+            editor.putString(locationKey, mSavedLocation);
+        } else {
+            editor.remove(locationKey);
+        }
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    public void testFailedWriteIsFetchedAgain() throws Exception {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), LOCATION_SETTING)
+                .commit();
+        SettingsSnapshot.refresh(mContext);
+        mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI,
+                SunshineSyncAdapter.createLocationValues(LOCATION_SETTING, "Failure", 37.0,
+                        -122.0));
+
+        FailingWeatherProvider weatherProvider = new FailingWeatherProvider();
+        ProviderInfo providerInfo = new ProviderInfo();
+        providerInfo.authority = WeatherContract.CONTENT_AUTHORITY;
+        weatherProvider.attachInfo(mContext, providerInfo);
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(WeatherContract.CONTENT_AUTHORITY, weatherProvider);
+
+        SunshineSyncAdapter syncAdapter =
+                new SunshineSyncAdapter(mContext, false, new LocalForecastSource(mServer));
+        Account account = new Account(mContext.getString(R.string.app_name),
+                mContext.getString(R.string.sync_account_type));
+        ContentProviderClient provider =
+                resolver.acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            weatherProvider.failBatches = true;
+            SyncResult syncResult = new SyncResult();
+            syncAdapter.onPerformSync(account, new Bundle(), WeatherContract.CONTENT_AUTHORITY,
+                    provider, syncResult);
+            assertTrue("Error: the failed write wasn't reported", syncResult.databaseError);
+            assertEquals("Error: the failed write stored days", 0, countWeatherRows());
+
+            weatherProvider.failBatches = false;
+            syncResult = new SyncResult();
+            syncAdapter.onPerformSync(account, new Bundle(), WeatherContract.CONTENT_AUTHORITY,
+                    provider, syncResult);
+            assertFalse("Error: the second sync failed: " + syncResult, syncResult.hasError());
+            assertEquals("Error: the forecast of the failed write wasn't fetched again",
+                    2, mServer.getRequestCount());
+            assertEquals("Error: the second sync didn't store the forecast",
+                    NUM_DAYS, countWeatherRows());
+        } finally {
+            provider.release();
+        }
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
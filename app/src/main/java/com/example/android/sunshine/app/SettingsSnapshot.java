@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * The settings the app reads while it renders, read once and kept in plain fields.
+ *
+ * The forecast list, the widgets and the notification check the units, the art pack and the
+ * location for every row they show.  Reading them from SharedPreferences means a map lookup
+ * and a resource read for each key, each time; reading them from here is a field access.  A
+ * new snapshot replaces the current one whenever a preference changes, so a snapshot itself is
+ * never modified and can be shared between threads.
+ *
+ * SharedPreferences tells its listeners about a change on the main thread.  A write made on
+ * another thread is seen here once the main thread gets to it, so code that writes a setting
+ * off the main thread and reads it right back should call {@link #refresh} in between.
+ */
+public final class SettingsSnapshot {
+
+    private static volatile SettingsSnapshot sCurrent;
+
+    // SharedPreferences only keeps weak references to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    public final String locationSetting;
+    public final boolean isMetric;
+    public final boolean usingLocalGraphics;
+    // The URL format of the art pack, with a %s for the name of the art
+    public final String artPackFormat;
+    // The format of a temperature, in R.string.format_temperature
+    public final String temperatureFormat;
+
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        locationSetting = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        String metric = context.getString(R.string.pref_units_metric);
+        isMetric = prefs.getString(context.getString(R.string.pref_units_key), metric)
+                .equals(metric);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artPackFormat = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        usingLocalGraphics = artPackFormat.equals(sunshineArtPack);
+        temperatureFormat = context.getString(R.string.format_temperature);
+    }
+
+    /**
+     * @return the current settings, read from SharedPreferences if this is the first call.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot current = sCurrent;
+        if (current == null) {
+            current = refresh(context);
+        }
+        return current;
+    }
+
+    /**
+     * Reads the settings again and makes them the current snapshot.
+     */
+    public static synchronized SettingsSnapshot refresh(Context context) {
+        Context appContext = context.getApplicationContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+        if (sListener == null) {
+            register(appContext, prefs);
+        }
+        SettingsSnapshot snapshot = new SettingsSnapshot(appContext, prefs);
+        sCurrent = snapshot;
+        return snapshot;
+    }
+
+    // Listens before the first read, so that no change can be missed in between
+    private static void register(final Context appContext, SharedPreferences prefs) {
+        sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                  String key) {
+                refresh(appContext);
+            }
+        };
+        prefs.registerOnSharedPreferenceChangeListener(sListener);
+        // The formats are resources, which may differ in the new locale
+        appContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                refresh(appContext);
+            }
+        }, new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.Locale;
+
+/**
+ * What the app shows for each OpenWeatherMap condition code, looked up by array index.
+ *
+ * The icon, art and description of a day are looked up on every list bind, widget row,
+ * notification and Muzei update.  The codes run from 200 to 962, so a table of one byte per
+ * code, built once, maps a code to the art it shares with its neighbours, and a second table
+ * maps it to its own description.  Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+final class WeatherConditions {
+
+    // The lowest and highest condition codes with an entry
+    static final int FIRST_ID = 200;
+    static final int LAST_ID = 962;
+
+    // The kinds of art, as stored in sKinds.  NONE is a code without art.
+    private static final byte NONE = 0;
+    private static final byte STORM = 1;
+    private static final byte LIGHT_RAIN = 2;
+    private static final byte RAIN = 3;
+    private static final byte SNOW = 4;
+    private static final byte FOG = 5;
+    // Squalls look like a storm, but Muzei shows them with a picture of their own
+    private static final byte SQUALLS = 6;
+    private static final byte CLEAR = 7;
+    private static final byte LIGHT_CLOUDS = 8;
+    private static final byte CLOUDS = 9;
+
+    // These are indexed by kind
+    private static final int[] ICONS = {
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_storm,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+    private static final int[] ARTS = {
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_storm,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+    // The name of the art in an art pack URL
+    private static final String[] ART_NAMES = {
+            null, "storm", "light_rain", "rain", "snow", "fog", "storm", "clear", "light_clouds",
+            "clouds"
+    };
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // The kind of art of each code, indexed by code - FIRST_ID
+    private static final byte[] sKinds = new byte[LAST_ID - FIRST_ID + 1];
+    // The description of each code, indexed by code - FIRST_ID.  0 is a code without one.
+    private static final int[] sStringIds = new int[LAST_ID - FIRST_ID + 1];
+
+    static {
+        setKind(200, 232, STORM);
+        setKind(300, 321, LIGHT_RAIN);
+        setKind(500, 504, RAIN);
+        setKind(511, 511, SNOW);
+        setKind(520, 531, RAIN);
+        setKind(600, 622, SNOW);
+        setKind(701, 761, FOG);
+        setKind(781, 781, SQUALLS);
+        setKind(800, 800, CLEAR);
+        setKind(801, 801, LIGHT_CLOUDS);
+        setKind(802, 804, CLOUDS);
+
+        setString(200, 232, R.string.condition_2xx);
+        setString(300, 321, R.string.condition_3xx);
+        setString(500, R.string.condition_500);
+        setString(501, R.string.condition_501);
+        setString(502, R.string.condition_502);
+        setString(503, R.string.condition_503);
+        setString(504, R.string.condition_504);
+        setString(511, R.string.condition_511);
+        setString(520, R.string.condition_520);
+        setString(531, R.string.condition_531);
+        setString(600, R.string.condition_600);
+        setString(601, R.string.condition_601);
+        setString(602, R.string.condition_602);
+        setString(611, R.string.condition_611);
+        setString(612, R.string.condition_612);
+        setString(615, R.string.condition_615);
+        setString(616, R.string.condition_616);
+        setString(620, R.string.condition_620);
+        setString(621, R.string.condition_621);
+        setString(622, R.string.condition_622);
+        setString(701, R.string.condition_701);
+        setString(711, R.string.condition_711);
+        setString(721, R.string.condition_721);
+        setString(731, R.string.condition_731);
+        setString(741, R.string.condition_741);
+        setString(751, R.string.condition_751);
+        setString(761, R.string.condition_761);
+        setString(762, R.string.condition_762);
+        setString(771, R.string.condition_771);
+        setString(781, R.string.condition_781);
+        setString(800, R.string.condition_800);
+        setString(801, R.string.condition_801);
+        setString(802, R.string.condition_802);
+        setString(803, R.string.condition_803);
+        setString(804, R.string.condition_804);
+        setString(900, R.string.condition_900);
+        setString(901, R.string.condition_901);
+        setString(902, R.string.condition_902);
+        setString(903, R.string.condition_903);
+        setString(904, R.string.condition_904);
+        setString(905, R.string.condition_905);
+        setString(906, R.string.condition_906);
+        setString(951, R.string.condition_951);
+        setString(952, R.string.condition_952);
+        setString(953, R.string.condition_953);
+        setString(954, R.string.condition_954);
+        setString(955, R.string.condition_955);
+        setString(956, R.string.condition_956);
+        setString(957, R.string.condition_957);
+        setString(958, R.string.condition_958);
+        setString(959, R.string.condition_959);
+        setString(960, R.string.condition_960);
+        setString(961, R.string.condition_961);
+        setString(962, R.string.condition_962);
+    }
+
+    // The art URLs of the last art pack asked for, formatted once per kind
+    private static volatile ArtUrls sArtUrls;
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @return the icon resource id of a code, or -1 if it has none
+     */
+    static int getIcon(int weatherId) {
+        return ICONS[getKind(weatherId)];
+    }
+
+    /**
+     * @return the art resource id of a code, or -1 if it has none
+     */
+    static int getArt(int weatherId) {
+        return ARTS[getKind(weatherId)];
+    }
+
+    /**
+     * @return the Muzei image URL of a code, or null if it has none
+     */
+    static String getImageUrl(int weatherId) {
+        return IMAGE_URLS[getKind(weatherId)];
+    }
+
+    /**
+     * @param artPackFormat the URL format of an art pack, with a %s for the name of the art
+     * @return the art URL of a code in that pack, or null if it has none
+     */
+    static String getArtUrl(String artPackFormat, int weatherId) {
+        int kind = getKind(weatherId);
+        if (kind == NONE) {
+            return null;
+        }
+        ArtUrls artUrls = sArtUrls;
+        if (artUrls == null || !artUrls.format.equals(artPackFormat)) {
+            artUrls = new ArtUrls(artPackFormat);
+            sArtUrls = artUrls;
+        }
+        return artUrls.urls[kind];
+    }
+
+    /**
+     * @return the string resource id of the description of a code, or 0 if it has none
+     */
+    static int getStringId(int weatherId) {
+        return weatherId >= FIRST_ID && weatherId <= LAST_ID
+                ? sStringIds[weatherId - FIRST_ID] : 0;
+    }
+
+    private static int getKind(int weatherId) {
+        return weatherId >= FIRST_ID && weatherId <= LAST_ID
+                ? sKinds[weatherId - FIRST_ID] : NONE;
+    }
+
+    private static void setKind(int firstId, int lastId, byte kind) {
+        for (int id = firstId; id <= lastId; id++) {
+            sKinds[id - FIRST_ID] = kind;
+        }
+    }
+
+    private static void setString(int firstId, int lastId, int stringId) {
+        for (int id = firstId; id <= lastId; id++) {
+            sStringIds[id - FIRST_ID] = stringId;
+        }
+    }
+
+    private static void setString(int id, int stringId) {
+        sStringIds[id - FIRST_ID] = stringId;
+    }
+
+    private static final class ArtUrls {
+        final String format;
+        final String[] urls = new String[ART_NAMES.length];
+
+        ArtUrls(String format) {
+            this.format = format;
+            for (int kind = 0; kind < ART_NAMES.length; kind++) {
+                if (ART_NAMES[kind] != null) {
+                    urls[kind] = String.format(Locale.US, format, ART_NAMES[kind]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import java.util.TimeZone;
+
+/**
+ * Day arithmetic in the device's time zone, the way {@link android.text.format.Time} does it,
+ * without creating a Time, or a TimeZone, for each call.
+ *
+ * Every weather row is stored at the local midnight of its day, so the conversions here run on
+ * each write, each date URI and each day the sync parses.  The time zone is looked up once and
+ * kept until the system broadcasts that it changed, see {@link #register}.
+ */
+public final class JulianDay {
+
+    // The julian day of January 1st, 1970, as in Time.EPOCH_JULIAN_DAY
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    // The extra of ACTION_TIMEZONE_CHANGED that holds the id of the new time zone
+    private static final String EXTRA_TIME_ZONE = "time-zone";
+
+    // TimeZone.getDefault() returns a new copy on each call
+    private static volatile TimeZone sTimeZone = TimeZone.getDefault();
+
+    private static boolean sRegistered;
+
+    private JulianDay() {
+    }
+
+    /**
+     * Keeps the cached time zone up to date while this process runs.  Registering more than
+     * once does nothing.
+     */
+    public static synchronized void register(Context context) {
+        if (sRegistered) {
+            return;
+        }
+        context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                String id = intent.getStringExtra(EXTRA_TIME_ZONE);
+                setTimeZone(id != null ? TimeZone.getTimeZone(id) : TimeZone.getDefault());
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+        sRegistered = true;
+        // The zone may have changed between loading this class and registering
+        setTimeZone(TimeZone.getDefault());
+    }
+
+    /**
+     * Replaces the cached time zone.
+     */
+    static void setTimeZone(TimeZone timeZone) {
+        sTimeZone = timeZone;
+    }
+
+    /**
+     * @return the julian day that contains a time, in the device's time zone
+     */
+    public static int fromMillis(long millis) {
+        long localMillis = millis + sTimeZone.getOffset(millis);
+        long days = localMillis / DAY_IN_MILLIS;
+        if (localMillis % DAY_IN_MILLIS < 0) {
+            days--;
+        }
+        return (int) days + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * @return the time of the midnight that starts a julian day, in the device's time zone
+     */
+    public static long toMillis(int julianDay) {
+        TimeZone timeZone = sTimeZone;
+        long localMillis = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        long millis = localMillis - timeZone.getOffset(localMillis);
+        // The offset at local midnight can differ from the one at UTC midnight on the day the
+        // clocks change, so look it up again at the time found
+        return localMillis - timeZone.getOffset(millis);
+    }
+
+    /**
+     * @return the time of the midnight that starts the day containing a time
+     */
+    public static long normalize(long millis) {
+        return toMillis(fromMillis(millis));
+    }
+}
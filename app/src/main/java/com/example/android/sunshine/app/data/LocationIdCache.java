@@ -0,0 +1,148 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process-wide map from location setting to the row id of its location, and the time it was
+ * last used.
+ *
+ * The sync looks up every tracked location before it writes weather for it.  Locations are
+ * almost never added or removed, and the sync records their use at most once a day, so the whole
+ * location table is read once, on first use, and kept until the provider reports a change to
+ * {@link WeatherContract.LocationEntry#CONTENT_URI}.
+ */
+public final class LocationIdCache {
+
+    private static final String[] LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LAST_USED
+    };
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_SETTING = 0;
+    private static final int INDEX_LOCATION_ID = 1;
+    private static final int INDEX_LAST_USED = 2;
+
+    private static final class Location {
+        final long id;
+        final long lastUsed;
+
+        Location(long id, long lastUsed) {
+            this.id = id;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static LocationIdCache sInstance;
+
+    private final ContentResolver mResolver;
+    // Replaced, never modified, so callers can keep what they were handed.  Null until the
+    // location table has been read since the last change.
+    private Map<String, Location> mLocations;
+    // Bumped by every change, so a read that raced with one isn't kept
+    private int mGeneration;
+
+    private LocationIdCache(Context context) {
+        mResolver = context.getContentResolver();
+        // A null handler delivers changes on a binder thread, which is all invalidation needs
+        mResolver.registerContentObserver(WeatherContract.LocationEntry.CONTENT_URI, true,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidate();
+                    }
+                });
+    }
+
+    public static synchronized LocationIdCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LocationIdCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the row ID of the location, or -1 if it hasn't been added yet.
+     */
+    public long getLocationId(String locationSetting) {
+        Location location = getLocations().get(locationSetting);
+        return location != null ? location.id : -1;
+    }
+
+    /**
+     * @return the {@link WeatherContract.LocationEntry#COLUMN_LAST_USED} time of the location,
+     * or -1 if it hasn't been added yet.
+     */
+    public long getLastUsed(String locationSetting) {
+        Location location = getLocations().get(locationSetting);
+        return location != null ? location.lastUsed : -1;
+    }
+
+    /**
+     * @return every location setting in the location table
+     */
+    public Set<String> getLocationSettings() {
+        return getLocations().keySet();
+    }
+
+    /**
+     * Adds a location the caller has just inserted, so it is known before the provider's change
+     * notification arrives.
+     */
+    public synchronized void put(String locationSetting, long locationId, long lastUsed) {
+        // A read of the table that is still running may have missed this location
+        mGeneration++;
+        if (mLocations != null) {
+            Map<String, Location> locations = new LinkedHashMap<String, Location>(mLocations);
+            locations.put(locationSetting, new Location(locationId, lastUsed));
+            mLocations = Collections.unmodifiableMap(locations);
+        }
+    }
+
+    public synchronized void invalidate() {
+        mGeneration++;
+        mLocations = null;
+    }
+
+    private Map<String, Location> getLocations() {
+        int generation;
+        synchronized (this) {
+            if (mLocations != null) {
+                return mLocations;
+            }
+            generation = mGeneration;
+        }
+
+        // Query without holding the lock, so invalidate() never waits for the provider
+        Map<String, Location> locations = new LinkedHashMap<String, Location>();
+        Cursor cursor = mResolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                LOCATION_COLUMNS, null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    locations.put(cursor.getString(INDEX_LOCATION_SETTING),
+                            new Location(cursor.getLong(INDEX_LOCATION_ID),
+                                    cursor.getLong(INDEX_LAST_USED)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        locations = Collections.unmodifiableMap(locations);
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mLocations = locations;
+            }
+        }
+        return locations;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.android.sunshine.app.data;
+
+/**
+ * What the provider reads from a content URI: its match code and, for the weather of one
+ * location, the location, the days it covers and the selection that reads them.
+ *
+ * The provider keeps recently used URIs parsed, so the widgets and the lists that query the same
+ * URIs again and again don't match and split them each time.  Instances are shared between
+ * threads and never modified.
+ */
+final class ParsedUri {
+
+    // The UriMatcher code of the URI
+    final int match;
+
+    // For the weather of one location: the location setting
+    final String locationSetting;
+    // For the weather of one location: the days covered, inclusive
+    final long firstDate;
+    final long lastDate;
+    // For the weather of one location: the selection of the join that reads it
+    final String selection;
+    final String[] selectionArgs;
+
+    /**
+     * Describes a URI that is only dispatched on its match code.
+     */
+    ParsedUri(int match) {
+        this(match, null, 0, Long.MAX_VALUE, null, null);
+    }
+
+    /**
+     * Describes a URI for the weather of one location.
+     */
+    ParsedUri(int match, String locationSetting, long firstDate, long lastDate, String selection,
+              String[] selectionArgs) {
+        this.match = match;
+        this.locationSetting = locationSetting;
+        this.firstDate = firstDate;
+        this.lastDate = lastDate;
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+    }
+}
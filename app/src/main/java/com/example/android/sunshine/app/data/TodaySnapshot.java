@@ -0,0 +1,95 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.Utility;
+
+/**
+ * Today's forecast for the preferred location, as shown by the notification, the Today widget,
+ * Muzei and the watch.
+ *
+ * The sync adapter publishes a snapshot right after it has written a changed forecast, so every
+ * consumer it then wakes reads the same object from memory instead of querying the provider
+ * again.  Only a cold miss - a new process, another preferred location or a new day - reads
+ * the provider, through {@link WeatherContract#METHOD_GET_WEATHER} since it needs a single row.
+ */
+public final class TodaySnapshot {
+
+    private static volatile TodaySnapshot sCurrent;
+
+    public final String locationSetting;
+    public final long date;
+    public final int weatherId;
+    public final double maxTemp;
+    public final double minTemp;
+
+    public TodaySnapshot(String locationSetting, long date, int weatherId, double maxTemp,
+                         double minTemp) {
+        this.locationSetting = locationSetting;
+        this.date = date;
+        this.weatherId = weatherId;
+        this.maxTemp = maxTemp;
+        this.minTemp = minTemp;
+    }
+
+    /**
+     * Builds a snapshot from a weather row, as parsed by the sync adapter.
+     */
+    public static TodaySnapshot fromValues(String locationSetting, ContentValues values) {
+        return new TodaySnapshot(locationSetting,
+                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                WeatherContract.WeatherEntry.decodeTemperature(
+                        values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)),
+                WeatherContract.WeatherEntry.decodeTemperature(
+                        values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP)));
+    }
+
+    /**
+     * Makes a snapshot the one handed to consumers.  Must only be called once the data it
+     * describes has been written to the provider.
+     */
+    public static synchronized void publish(TodaySnapshot snapshot) {
+        sCurrent = snapshot;
+    }
+
+    /**
+     * @return today's forecast for the preferred location, or null if the provider has none.
+     */
+    public static TodaySnapshot get(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        final TodaySnapshot stale = sCurrent;
+        if (stale != null && stale.locationSetting.equals(locationSetting)
+                && stale.date >= today) {
+            return stale;
+        }
+
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.KEY_START_DATE, today);
+        extras.putInt(WeatherContract.KEY_ROW_COUNT, 1);
+        Bundle result = context.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_WEATHER, locationSetting, extras);
+        if (result == null) {
+            return null;
+        }
+        WeatherBatch weather = WeatherBatch.fromBundle(result);
+        if (weather.size() == 0) {
+            return null;
+        }
+        TodaySnapshot snapshot = new TodaySnapshot(locationSetting,
+                weather.getDate(0),
+                weather.getWeatherId(0),
+                weather.getMaxTemp(0),
+                weather.getMinTemp(0));
+        synchronized (TodaySnapshot.class) {
+            // Don't replace a snapshot the sync published while we were querying
+            if (sCurrent == stale) {
+                sCurrent = snapshot;
+            }
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * A batch of weather rows held in primitive arrays, one per column.
+ *
+ * This is the typed way to bulk insert weather: the values are never boxed into ContentValues,
+ * and the whole batch crosses the provider boundary as a handful of arrays in one Bundle, see
+ * {@link WeatherContract#METHOD_BULK_INSERT_WEATHER}.  Reads that only need the numbers, like
+ * the widgets, get their rows back the same way, see {@link WeatherContract#METHOD_GET_WEATHER}.
+ */
+public class WeatherBatch {
+
+    private static final String KEY_LOCATION_IDS = "location_ids";
+    private static final String KEY_DATES = "dates";
+    private static final String KEY_WEATHER_IDS = "weather_ids";
+    private static final String KEY_MIN_TEMPS = "min_temps";
+    private static final String KEY_MAX_TEMPS = "max_temps";
+    private static final String KEY_HUMIDITIES = "humidities";
+    private static final String KEY_PRESSURES = "pressures";
+    private static final String KEY_WINDS = "winds";
+
+    // The weather columns of a batch, for reading one with fromCursor
+    static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND
+    };
+    // these indices must match the projection
+    private static final int INDEX_LOC_KEY = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_HUMIDITY = 5;
+    private static final int INDEX_PRESSURE = 6;
+    private static final int INDEX_WIND = 7;
+
+    // The values are held as the weather table stores them, see WeatherContract.WeatherEntry,
+    // so inserting and reading a batch never converts them
+    private int mSize;
+    private long[] mLocationIds;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private int[] mMinTemps;
+    private int[] mMaxTemps;
+    private int[] mHumidities;
+    private int[] mPressures;
+    private int[] mWinds;
+
+    public WeatherBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mLocationIds = new long[capacity];
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mMinTemps = new int[capacity];
+        mMaxTemps = new int[capacity];
+        mHumidities = new int[capacity];
+        mPressures = new int[capacity];
+        mWinds = new int[capacity];
+    }
+
+    /**
+     * Adds one row.  The date is normalized by the provider when the batch is inserted.
+     */
+    public void add(long locationId, long date, int weatherId, double minTemp, double maxTemp,
+                    double humidity, double pressure, double windSpeed, double degrees) {
+        addEncoded(locationId, date, weatherId,
+                WeatherContract.WeatherEntry.encodeTemperature(minTemp),
+                WeatherContract.WeatherEntry.encodeTemperature(maxTemp),
+                WeatherContract.WeatherEntry.encodeHumidity(humidity),
+                WeatherContract.WeatherEntry.encodePressure(pressure),
+                WeatherContract.WeatherEntry.encodeWind(windSpeed, degrees));
+    }
+
+    private void addEncoded(long locationId, long date, int weatherId, int minTemp, int maxTemp,
+                            int humidity, int pressure, int wind) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+        mLocationIds[mSize] = locationId;
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWinds[mSize] = wind;
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getLocationId(int i) {
+        return mLocationIds[i];
+    }
+
+    public long getDate(int i) {
+        return mDates[i];
+    }
+
+    public int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public double getMinTemp(int i) {
+        return WeatherContract.WeatherEntry.decodeTemperature(mMinTemps[i]);
+    }
+
+    public double getMaxTemp(int i) {
+        return WeatherContract.WeatherEntry.decodeTemperature(mMaxTemps[i]);
+    }
+
+    public double getHumidity(int i) {
+        return mHumidities[i];
+    }
+
+    public double getPressure(int i) {
+        return WeatherContract.WeatherEntry.decodePressure(mPressures[i]);
+    }
+
+    public double getWindSpeed(int i) {
+        return WeatherContract.WeatherEntry.decodeWindSpeed(mWinds[i]);
+    }
+
+    public int getWindDirection(int i) {
+        return WeatherContract.WeatherEntry.decodeWindDirection(mWinds[i]);
+    }
+
+    // The stored values, for WeatherInserter
+
+    int getEncodedMinTemp(int i) {
+        return mMinTemps[i];
+    }
+
+    int getEncodedMaxTemp(int i) {
+        return mMaxTemps[i];
+    }
+
+    int getEncodedHumidity(int i) {
+        return mHumidities[i];
+    }
+
+    int getEncodedPressure(int i) {
+        return mPressures[i];
+    }
+
+    int getEncodedWind(int i) {
+        return mWinds[i];
+    }
+
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putLongArray(KEY_LOCATION_IDS, Arrays.copyOf(mLocationIds, mSize));
+        bundle.putLongArray(KEY_DATES, Arrays.copyOf(mDates, mSize));
+        bundle.putIntArray(KEY_WEATHER_IDS, Arrays.copyOf(mWeatherIds, mSize));
+        bundle.putIntArray(KEY_MIN_TEMPS, Arrays.copyOf(mMinTemps, mSize));
+        bundle.putIntArray(KEY_MAX_TEMPS, Arrays.copyOf(mMaxTemps, mSize));
+        bundle.putIntArray(KEY_HUMIDITIES, Arrays.copyOf(mHumidities, mSize));
+        bundle.putIntArray(KEY_PRESSURES, Arrays.copyOf(mPressures, mSize));
+        bundle.putIntArray(KEY_WINDS, Arrays.copyOf(mWinds, mSize));
+        return bundle;
+    }
+
+    /**
+     * Reads a batch written by {@link #toBundle()}.
+     *
+     * @throws IllegalArgumentException if there is no bundle, a column is missing or the columns
+     *                                  differ in length
+     */
+    public static WeatherBatch fromBundle(Bundle bundle) {
+        if (bundle == null) {
+            throw new IllegalArgumentException("Not a weather batch");
+        }
+        WeatherBatch batch = new WeatherBatch(0);
+        batch.mLocationIds = bundle.getLongArray(KEY_LOCATION_IDS);
+        batch.mDates = bundle.getLongArray(KEY_DATES);
+        batch.mWeatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+        batch.mMinTemps = bundle.getIntArray(KEY_MIN_TEMPS);
+        batch.mMaxTemps = bundle.getIntArray(KEY_MAX_TEMPS);
+        batch.mHumidities = bundle.getIntArray(KEY_HUMIDITIES);
+        batch.mPressures = bundle.getIntArray(KEY_PRESSURES);
+        batch.mWinds = bundle.getIntArray(KEY_WINDS);
+        if (batch.mLocationIds == null || batch.mDates == null || batch.mWeatherIds == null
+                || batch.mMinTemps == null || batch.mMaxTemps == null
+                || batch.mHumidities == null || batch.mPressures == null
+                || batch.mWinds == null) {
+            throw new IllegalArgumentException("Weather batch is missing a column");
+        }
+        int size = batch.mDates.length;
+        if (batch.mLocationIds.length != size || batch.mWeatherIds.length != size
+                || batch.mMinTemps.length != size || batch.mMaxTemps.length != size
+                || batch.mHumidities.length != size || batch.mPressures.length != size
+                || batch.mWinds.length != size) {
+            throw new IllegalArgumentException("Weather batch columns differ in length");
+        }
+        batch.mSize = size;
+        return batch;
+    }
+
+    /**
+     * Reads every row of a cursor over {@link #COLUMNS}.
+     */
+    static WeatherBatch fromCursor(Cursor cursor) {
+        WeatherBatch batch = new WeatherBatch(cursor.getCount());
+        while (cursor.moveToNext()) {
+            batch.addEncoded(cursor.getLong(INDEX_LOC_KEY),
+                    cursor.getLong(INDEX_DATE),
+                    cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getInt(INDEX_MIN_TEMP),
+                    cursor.getInt(INDEX_MAX_TEMP),
+                    cursor.getInt(INDEX_HUMIDITY),
+                    cursor.getInt(INDEX_PRESSURE),
+                    cursor.getInt(INDEX_WIND));
+        }
+        return batch;
+    }
+
+    private void grow() {
+        int capacity = mDates.length * 2;
+        mLocationIds = Arrays.copyOf(mLocationIds, capacity);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWinds = Arrays.copyOf(mWinds, capacity);
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects what a write to the provider touched, and notifies only the URIs that cover it.
+ *
+ * A weather row is notified through the URI of its location and day, or of its location alone
+ * when several of its days changed, so an observer of another city, or of another day, is left
+ * alone.  Observers of {@link WeatherEntry#CONTENT_URI} still see every change, as change
+ * notifications reach observers of a URI's ancestors.  The same locations and days are what
+ * is dropped from the {@link WeatherQueryCache}.
+ */
+class WeatherChanges {
+
+    private static final String[] TOUCHED_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            "MIN(" + WeatherEntry.COLUMN_DATE + ")",
+            "MAX(" + WeatherEntry.COLUMN_DATE + ")"
+    };
+    // these indices must match the projection
+    private static final int INDEX_LOC_KEY = 0;
+    private static final int INDEX_MIN_DATE = 1;
+    private static final int INDEX_MAX_DATE = 2;
+
+    // The first and last changed date of each location id
+    private final Map<Long, long[]> mDates = new HashMap<Long, long[]>();
+    private final Set<Uri> mUris = new LinkedHashSet<Uri>();
+
+    /**
+     * Records a change that isn't described by weather rows, like a change to a location.
+     */
+    void addUri(Uri uri) {
+        mUris.add(uri);
+    }
+
+    /**
+     * Records a weather row that was written.
+     *
+     * @param date the normalized date of the row
+     */
+    void addWeather(long locationId, long date) {
+        long[] known = mDates.get(locationId);
+        if (known == null) {
+            mDates.put(locationId, new long[]{date, date});
+        } else {
+            known[0] = Math.min(known[0], date);
+            known[1] = Math.max(known[1], date);
+        }
+    }
+
+    /**
+     * Records the weather rows matched by a selection.  Must be called before the rows are
+     * updated or deleted.
+     */
+    void addWeather(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, TOUCHED_COLUMNS, selection,
+                selectionArgs, WeatherEntry.COLUMN_LOC_KEY, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(INDEX_LOC_KEY);
+                addWeather(locationId, cursor.getLong(INDEX_MIN_DATE));
+                addWeather(locationId, cursor.getLong(INDEX_MAX_DATE));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    boolean isEmpty() {
+        return mDates.isEmpty() && mUris.isEmpty();
+    }
+
+    /**
+     * Drops the cached queries that may have changed, then notifies every recorded change once.
+     * The cache goes first, so an observer that queries again never reads what was there before.
+     */
+    void notifyChanges(ContentResolver resolver, SQLiteDatabase db, WeatherQueryCache cache) {
+        Set<Uri> uris = new LinkedHashSet<Uri>(mUris);
+        if (!mUris.isEmpty()) {
+            // A location, or a whole table, changed, which any cached query may show
+            cache.clear();
+        }
+        if (!mDates.isEmpty()) {
+            Map<Long, String> locationSettings = getLocationSettings(db);
+            for (Map.Entry<Long, long[]> change : mDates.entrySet()) {
+                String locationSetting = locationSettings.get(change.getKey());
+                long firstDate = change.getValue()[0];
+                long lastDate = change.getValue()[1];
+                if (locationSetting == null) {
+                    // A row without a location can only be seen through the whole table
+                    uris.add(WeatherEntry.CONTENT_URI);
+                    cache.clear();
+                } else {
+                    uris.add(firstDate == lastDate
+                            ? WeatherEntry.buildWeatherLocationWithDate(locationSetting, firstDate)
+                            : WeatherEntry.buildWeatherLocation(locationSetting));
+                    cache.invalidate(locationSetting, firstDate, lastDate);
+                }
+            }
+        }
+        for (Uri uri : uris) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+
+    private Map<Long, String> getLocationSettings(SQLiteDatabase db) {
+        StringBuilder selection = new StringBuilder(LocationEntry._ID).append(" IN (");
+        boolean first = true;
+        for (Long locationId : mDates.keySet()) {
+            if (!first) {
+                selection.append(',');
+            }
+            selection.append(locationId.longValue());
+            first = false;
+        }
+        selection.append(')');
+
+        Map<Long, String> locationSettings = new HashMap<Long, String>();
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING},
+                selection.toString(), null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationSettings.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationSettings;
+    }
+}
@@ -17,9 +17,9 @@ package com.example.android.sunshine.app.data;
 
 import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.database.Cursor;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -44,14 +44,37 @@ public class WeatherContract {
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
 
+    // Passed to ContentResolver#call to read the sync metrics.  The result is the Bundle
+    // described by SyncMetrics#toBundle.
+    public static final String METHOD_GET_SYNC_METRICS = "get_sync_metrics";
+
+    // Passed to ContentResolver#call with the Bundle of a WeatherBatch to insert its rows without
+    // going through ContentValues.  The result holds the number of rows inserted under
+    // KEY_ROW_COUNT.
+    public static final String METHOD_BULK_INSERT_WEATHER = "bulk_insert_weather";
+    public static final String KEY_ROW_COUNT = "row_count";
+
+    // Passed to ContentResolver#call with a location setting as the argument, which is
+    // required, to read its weather in one round trip instead of through a cursor.  The extras may limit the dates read
+    // to KEY_START_DATE through KEY_END_DATE, and the number of rows read to KEY_ROW_COUNT.  The
+    // result is the Bundle of a WeatherBatch, in ascending date order.
+    public static final String METHOD_GET_WEATHER = "get_weather";
+    public static final String KEY_START_DATE = "start_date";
+    public static final String KEY_END_DATE = "end_date";
+
+    // Passed to ContentResolver#call to apply WeatherRetention and shrink the database file.
+    // The result holds the database size before and after under KEY_SIZE_BEFORE and
+    // KEY_SIZE_AFTER, in bytes, and the weather rows and locations deleted under KEY_ROW_COUNT
+    // and KEY_LOCATION_COUNT.
+    public static final String METHOD_COMPACT_DATABASE = "compact_database";
+    public static final String KEY_SIZE_BEFORE = "size_before";
+    public static final String KEY_SIZE_AFTER = "size_after";
+    public static final String KEY_LOCATION_COUNT = "location_count";
+
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of their Julian day in the device's time zone.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return JulianDay.normalize(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,6 +104,12 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // The last time the location was the preferred one, in milliseconds since the epoch.
+        // The app only ever shows the preferred location, so this is also when it was last
+        // viewed.  Set to the current time when a location is inserted without it, and kept up
+        // to date by the sync; see WeatherRetention for what happens to unused locations.
+        public static final String COLUMN_LAST_USED = "last_used";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -103,28 +132,101 @@ public class WeatherContract {
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
         public static final String COLUMN_DATE = "date";
-        // Weather id as returned by API, to identify the icon to be used
+        // Weather id as returned by API, to identify the icon to be used and, through
+        // Utility.getStringForWeatherCondition, the description shown
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
-        // Short description and long description of the weather, as provided by API.
-        // e.g "clear" vs "sky is clear".
-        public static final String COLUMN_SHORT_DESC = "short_desc";
+        // The columns below hold integers in fixed point, which takes a few bytes per value
+        // where a REAL always takes eight.  Write them with the encode methods and read them
+        // with the get methods below, rather than relying on the encoding.
 
-        // Min and max temperatures for the day (stored as floats)
+        // Min and max temperatures for the day, in tenths of a degree Celsius
         public static final String COLUMN_MIN_TEMP = "min";
         public static final String COLUMN_MAX_TEMP = "max";
 
-        // Humidity is stored as a float representing percentage
+        // Humidity, in whole percent
         public static final String COLUMN_HUMIDITY = "humidity";
 
-        // Humidity is stored as a float representing percentage
+        // Pressure, in tenths of a hectopascal
         public static final String COLUMN_PRESSURE = "pressure";
 
-        // Windspeed is stored as a float representing windspeed  mph
-        public static final String COLUMN_WIND_SPEED = "wind";
+        // Wind speed, in tenths of a meter per second, and the meteorological degrees the wind
+        // comes from (e.g, 0 is north, 180 is south), packed into one value by encodeWind
+        public static final String COLUMN_WIND = "wind";
+
+        // The low bits of COLUMN_WIND that hold the direction, which is less than 2^9
+        static final int WIND_DIRECTION_BITS = 9;
+
+        public static int encodeTemperature(double celsius) {
+            return (int) Math.round(celsius * 10);
+        }
+
+        public static int encodeHumidity(double percent) {
+            return (int) Math.round(percent);
+        }
+
+        public static int encodePressure(double hectopascals) {
+            return (int) Math.round(hectopascals * 10);
+        }
+
+        public static int encodeWind(double metersPerSecond, double degrees) {
+            int direction = (int) Math.round(degrees) % 360;
+            if (direction < 0) {
+                direction += 360;
+            }
+            return (int) Math.round(metersPerSecond * 10) << WIND_DIRECTION_BITS | direction;
+        }
+
+        public static double decodeTemperature(int value) {
+            return value / 10.0;
+        }
+
+        public static double decodePressure(int value) {
+            return value / 10.0;
+        }
+
+        public static double decodeWindSpeed(int value) {
+            return (value >>> WIND_DIRECTION_BITS) / 10.0;
+        }
 
-        // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
-        public static final String COLUMN_DEGREES = "degrees";
+        public static int decodeWindDirection(int value) {
+            return value & ((1 << WIND_DIRECTION_BITS) - 1);
+        }
+
+        /**
+         * @return the temperature of COLUMN_MIN_TEMP or COLUMN_MAX_TEMP, in degrees Celsius
+         */
+        public static double getTemperature(Cursor cursor, int columnIndex) {
+            return decodeTemperature(cursor.getInt(columnIndex));
+        }
+
+        /**
+         * @return the humidity of COLUMN_HUMIDITY, in percent
+         */
+        public static double getHumidity(Cursor cursor, int columnIndex) {
+            return cursor.getInt(columnIndex);
+        }
+
+        /**
+         * @return the pressure of COLUMN_PRESSURE, in hectopascals
+         */
+        public static double getPressure(Cursor cursor, int columnIndex) {
+            return decodePressure(cursor.getInt(columnIndex));
+        }
+
+        /**
+         * @return the wind speed of COLUMN_WIND, in meters per second
+         */
+        public static double getWindSpeed(Cursor cursor, int columnIndex) {
+            return decodeWindSpeed(cursor.getInt(columnIndex));
+        }
+
+        /**
+         * @return the direction of COLUMN_WIND, in meteorological degrees
+         */
+        public static int getWindDirection(Cursor cursor, int columnIndex) {
+            return decodeWindDirection(cursor.getInt(columnIndex));
+        }
 
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
@@ -16,6 +16,7 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
@@ -27,13 +28,61 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add the
+    // step that upgrades the previous version to onUpgrade.
+    static final int DATABASE_VERSION = 5;
+
+    // The oldest version onUpgrade migrates in place.  Older databases predate the schema the
+    // app first shipped with, and are rebuilt.
+    static final int OLDEST_MIGRATED_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Serves the queries for a range of days of one location, like the forecast list: the
+    // location and date range come from the leading columns, and the rest are the columns the
+    // list shows, so SQLite never has to go back to the weather table for them.  The location
+    // side of the join needs no index of its own, the UNIQUE location setting already finds
+    // its single row.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    // The UNIQUE constraint of the weather table already gives an index on (date, location_id),
+    // which is what deleting old days uses.  Queries for one location need location_id first.
+    // This is the index of the current version, for onCreate and the latest upgrade step only;
+    // earlier steps spell out the index of their own version.
+    private static final String SQL_CREATE_WEATHER_INDEX = "CREATE INDEX " +
+            INDEX_WEATHER_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ");";
+
+    // Pages the write-ahead log may grow to before a write checkpoints it.  The sync writes a
+    // few hundred rows at most, so this keeps the log small without checkpointing every batch.
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 500;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With write-ahead logging, readers use their own connections from the pool and see
+        // the last committed data, so the UI, widgets and Muzei never wait for a sync's write
+        // transaction to finish.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // PRAGMAs that return a row can't go through execSQL
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES,
+                null);
+    }
+
+    /**
+     * Copies the write-ahead log back into the database without waiting for readers.  Called
+     * after large writes so the log doesn't keep growing while readers hold it open.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_checkpoint(PASSIVE)", null);
     }
 
     @Override
@@ -45,10 +94,17 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_LAST_USED + " INTEGER NOT NULL DEFAULT 0" +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(createWeatherTable(WeatherEntry.TABLE_NAME));
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_INDEX);
+    }
+
+    private static String createWeatherTable(String tableName) {
+        return "CREATE TABLE " + tableName + " (" +
                 // Why AutoIncrement here, and not above?
                 // Unique keys will be auto-generated in either case.  But for weather
                 // forecasting, it's reasonable to assume the user will want information
@@ -59,16 +115,17 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 // the ID of the location entry associated with this weather data
                 WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
                 WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
 
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                // Fixed point values, see WeatherEntry.  SQLite stores each integer in as few
+                // bytes as it needs, one to three here where a REAL always takes eight, so the
+                // table, its index and the query cache hold more days per page.
+                WeatherEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
 
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WIND + " INTEGER NOT NULL, " +
 
                 // Set up the location column as a foreign key to location table.
                 " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
@@ -78,19 +135,100 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 // per location, it's created a UNIQUE constraint with REPLACE strategy
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
-
-        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // The data is only a cache of online data, but discarding it would leave every device
+        // empty after an app update until it has synced all of its locations again.  So the
+        // tables are upgraded in place, one version at a time.  This runs in a transaction, so
+        // a step that fails leaves the database as it was.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion < OLDEST_MIGRATED_VERSION) {
+            recreate(sqLiteDatabase);
+            return;
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            switch (version) {
+                case 2:
+                    // 3: the covering index for the days of one location.  Frozen as it was in
+                    // version 3, since the later steps expect to find exactly this index.
+                    sqLiteDatabase.execSQL("CREATE INDEX weather_location_date ON weather " +
+                            "(location_id, date, weather_id, short_desc, max, min)");
+                    break;
+                case 3:
+                    // 4: fixed point values, and no stored description
+                    upgradeToFixedPoint(sqLiteDatabase);
+                    break;
+                case 4:
+                    // 5: when each location was last used.  The existing locations count as
+                    // used now, so none of them is dropped before it has had time to go stale.
+                    sqLiteDatabase.execSQL("ALTER TABLE location ADD COLUMN " +
+                            "last_used INTEGER NOT NULL DEFAULT 0");
+                    sqLiteDatabase.execSQL("UPDATE location SET last_used = " +
+                            System.currentTimeMillis());
+                    break;
+                default:
+                    throw new IllegalStateException("No upgrade from database version " + version);
+            }
+        }
+    }
+
+    /**
+     * Copies the version 3 weather table into the fixed point one.  SQLite can't change the
+     * type of a column, so the table is rebuilt under a new name and renamed over the old one.
+     * The expressions match the encode methods of WeatherEntry, rounding as Math.round does.
+     */
+    private static void upgradeToFixedPoint(SQLiteDatabase db) {
+        final String newTable = WeatherEntry.TABLE_NAME + "_v4";
+        db.execSQL(createWeatherTable(newTable));
+        db.execSQL("INSERT INTO " + newTable + " (" +
+                WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND + ") SELECT " +
+                WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                round("min * 10") + ", " +
+                round("max * 10") + ", " +
+                round("humidity") + ", " +
+                round("pressure * 10") + ", " +
+                "(" + round("wind * 10") + " << " + WeatherEntry.WIND_DIRECTION_BITS +
+                ") | ((" + round("degrees") + " % 360 + 360) % 360)" +
+                " FROM " + WeatherEntry.TABLE_NAME);
+        // Dropping the table drops its index too
+        db.execSQL("DROP TABLE " + WeatherEntry.TABLE_NAME);
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + WeatherEntry.TABLE_NAME);
+        db.execSQL(SQL_CREATE_WEATHER_INDEX);
+    }
+
+    /**
+     * Rounds an SQL expression to the nearest integer the way Math.round does, halves up.
+     * SQLite's ROUND takes halves away from zero, so -2.5 would become -3 instead of -2, and
+     * the floor function isn't available everywhere.  This takes the floor of x + 0.5 from the
+     * truncating CAST, which is one too high when the value is negative and not whole.
+     */
+    private static String round(String expression) {
+        final String shifted = "(" + expression + " + 0.5)";
+        return "(CAST(" + shifted + " AS INTEGER) - (" + shifted + " < CAST(" + shifted +
+                " AS INTEGER)))";
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // A newer schema may not be readable by this version, so start over
+        recreate(sqLiteDatabase);
+    }
+
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
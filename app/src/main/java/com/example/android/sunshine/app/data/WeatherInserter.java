@@ -0,0 +1,126 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Inserts weather rows through one precompiled INSERT OR REPLACE statement.
+ *
+ * SQLiteDatabase.insert builds and compiles a new statement from the column names of every
+ * ContentValues it is given; this compiles once and only binds values per row.  A row that
+ * is missing a column, has a column the statement doesn't bind, or holds a number that isn't
+ * whole is invalid, and is rejected with an SQLException before anything is written; what
+ * that does to the rest of the rows is up to the caller.  An inserter belongs to the thread
+ * that created it and must be closed when done, normally at the end of the transaction it was
+ * used in.
+ */
+class WeatherInserter {
+
+    private static final String SQL_INSERT = "INSERT OR REPLACE INTO " + WeatherEntry.TABLE_NAME
+            + " (" + WeatherEntry.COLUMN_LOC_KEY + ", "
+            + WeatherEntry.COLUMN_DATE + ", "
+            + WeatherEntry.COLUMN_WEATHER_ID + ", "
+            + WeatherEntry.COLUMN_MIN_TEMP + ", "
+            + WeatherEntry.COLUMN_MAX_TEMP + ", "
+            + WeatherEntry.COLUMN_HUMIDITY + ", "
+            + WeatherEntry.COLUMN_PRESSURE + ", "
+            + WeatherEntry.COLUMN_WIND
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Bind indices, in the order of SQL_INSERT
+    private static final int BIND_LOC_KEY = 1;
+    private static final int BIND_DATE = 2;
+    private static final int BIND_WEATHER_ID = 3;
+    private static final int BIND_MIN_TEMP = 4;
+    private static final int BIND_MAX_TEMP = 5;
+    private static final int BIND_HUMIDITY = 6;
+    private static final int BIND_PRESSURE = 7;
+    private static final int BIND_WIND = 8;
+
+    // Every column SQL_INSERT binds
+    private static final Set<String> COLUMNS = new HashSet<String>(Arrays.asList(
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND));
+
+    private final SQLiteStatement mStatement;
+
+    WeatherInserter(SQLiteDatabase db) {
+        mStatement = db.compileStatement(SQL_INSERT);
+    }
+
+    /**
+     * Inserts one row, whose date must already be normalized.
+     *
+     * @return the row ID of the new row
+     * @throws SQLException if the row is invalid
+     */
+    long insert(ContentValues values) {
+        for (String column : values.keySet()) {
+            if (!COLUMNS.contains(column)) {
+                throw new SQLException("Unknown weather column " + column);
+            }
+        }
+        mStatement.clearBindings();
+        bindLong(BIND_LOC_KEY, values, WeatherEntry.COLUMN_LOC_KEY);
+        bindLong(BIND_DATE, values, WeatherEntry.COLUMN_DATE);
+        bindLong(BIND_WEATHER_ID, values, WeatherEntry.COLUMN_WEATHER_ID);
+        bindLong(BIND_MIN_TEMP, values, WeatherEntry.COLUMN_MIN_TEMP);
+        bindLong(BIND_MAX_TEMP, values, WeatherEntry.COLUMN_MAX_TEMP);
+        bindLong(BIND_HUMIDITY, values, WeatherEntry.COLUMN_HUMIDITY);
+        bindLong(BIND_PRESSURE, values, WeatherEntry.COLUMN_PRESSURE);
+        bindLong(BIND_WIND, values, WeatherEntry.COLUMN_WIND);
+        return mStatement.executeInsert();
+    }
+
+    /**
+     * Inserts row i of a batch, with the given normalized date.
+     *
+     * @return the row ID of the new row
+     */
+    long insert(WeatherBatch batch, int i, long normalizedDate) {
+        mStatement.bindLong(BIND_LOC_KEY, batch.getLocationId(i));
+        mStatement.bindLong(BIND_DATE, normalizedDate);
+        mStatement.bindLong(BIND_WEATHER_ID, batch.getWeatherId(i));
+        mStatement.bindLong(BIND_MIN_TEMP, batch.getEncodedMinTemp(i));
+        mStatement.bindLong(BIND_MAX_TEMP, batch.getEncodedMaxTemp(i));
+        mStatement.bindLong(BIND_HUMIDITY, batch.getEncodedHumidity(i));
+        mStatement.bindLong(BIND_PRESSURE, batch.getEncodedPressure(i));
+        mStatement.bindLong(BIND_WIND, batch.getEncodedWind(i));
+        return mStatement.executeInsert();
+    }
+
+    void close() {
+        mStatement.close();
+    }
+
+    // Every column holds a whole number, so a fraction is a value that wasn't encoded, like a
+    // temperature in degrees, rather than something to truncate.
+    private void bindLong(int index, ContentValues values, String column) {
+        Object value = values.get(column);
+        if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if (number != Math.rint(number)) {
+                throw new SQLException("Not a whole number in " + column + ": " + value);
+            }
+        }
+        Long longValue = values.getAsLong(column);
+        if (longValue == null) {
+            throw new SQLException("Missing weather column " + column);
+        }
+        mStatement.bindLong(index, longValue);
+    }
+}
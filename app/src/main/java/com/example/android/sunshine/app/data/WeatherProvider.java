@@ -17,25 +17,51 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.util.LruCache;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.sync.SyncMetrics;
+
+import java.util.ArrayList;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // The compiled weather insert of the applyBatch running on the current thread, if any
+    private final ThreadLocal<WeatherInserter> mBatchInserter = new ThreadLocal<WeatherInserter>();
+    // The changes made by the applyBatch running on the current thread, sent once it commits
+    private final ThreadLocal<WeatherChanges> mBatchChanges = new ThreadLocal<WeatherChanges>();
+    // Recent results of the queries for one location, dropped by the writes that change them
+    private final WeatherQueryCache mQueryCache = new WeatherQueryCache();
+    // Recently used URIs, parsed
+    private final LruCache<Uri, ParsedUri> mParsedUris = new LruCache<Uri, ParsedUri>(PARSED_URIS);
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // URIs kept parsed: the forecast list, the days of the detail widget and a few more
+    private static final int PARSED_URIS = 64;
+
+    // Writes of at least this many rows checkpoint the write-ahead log when they are done
+    private static final int CHECKPOINT_ROWS = 100;
+
+    // The join and selections below are package-private so TestQueryPlan can check the plans
+    // of the exact queries the provider runs.
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,60 +78,115 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+    //location.location_setting = ? AND date >= ? AND date <= ?
+    static final String sLocationSettingWithDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ? ";
 
-        String[] selectionArgs;
-        String selection;
+    /**
+     * @return the parsed form of a URI, from the cache of recently used ones if it is there
+     */
+    private ParsedUri parseUri(Uri uri) {
+        ParsedUri parsed = mParsedUris.get(uri);
+        if (parsed == null) {
+            parsed = parseUriUncached(uri);
+            if (parsed.match != UriMatcher.NO_MATCH) {
+                mParsedUris.put(uri, parsed);
+            }
+        }
+        return parsed;
+    }
 
-        if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
-        } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+    /**
+     * Matches a URI and, for the weather of one location, reads its location and dates and
+     * builds the arguments of its selection.
+     */
+    static ParsedUri parseUriUncached(Uri uri) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            // "weather/*/*"
+            case WEATHER_WITH_LOCATION_AND_DATE: {
+                String locationSetting =
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+                return new ParsedUri(match, locationSetting, date, date,
+                        sLocationSettingAndDaySelection,
+                        new String[]{locationSetting, Long.toString(date)});
+            }
+            // "weather/*"
+            case WEATHER_WITH_LOCATION: {
+                String locationSetting =
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+                if (startDate == 0) {
+                    return new ParsedUri(match, locationSetting, 0, Long.MAX_VALUE,
+                            sLocationSettingSelection, new String[]{locationSetting});
+                }
+                return new ParsedUri(match, locationSetting, startDate, Long.MAX_VALUE,
+                        sLocationSettingWithStartDateSelection,
+                        new String[]{locationSetting, Long.toString(startDate)});
+            }
+            default:
+                return new ParsedUri(match);
         }
+    }
 
+    private Cursor getWeatherByLocationSetting(
+            ParsedUri parsed, String[] projection, String sortOrder) {
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
-                selection,
-                selectionArgs,
+                parsed.selection,
+                parsed.selectionArgs,
                 null,
                 null,
                 sortOrder
         );
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
-            Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+    /**
+     * Answers a query for the weather of one location from the query cache, or runs it and caches
+     * its result.  A query made inside a transaction may read rows that are rolled back, so it
+     * neither reads nor fills the cache.
+     */
+    private Cursor getCachedWeatherByLocationSetting(
+            Uri uri, ParsedUri parsed, String[] projection, String sortOrder) {
+        if (mOpenHelper.getReadableDatabase().inTransaction()) {
+            return getWeatherByLocationSetting(parsed, projection, sortOrder);
+        }
+
+        String key = WeatherQueryCache.getKey(uri, projection, sortOrder);
+        Cursor cursor = mQueryCache.get(key);
+        if (cursor != null) {
+            return cursor;
+        }
+        int generation = mQueryCache.getGeneration();
+        return mQueryCache.put(key, generation, parsed.locationSetting, parsed.firstDate,
+                parsed.lastDate, getWeatherByLocationSetting(parsed, projection, sortOrder));
+    }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
-                null,
-                null,
-                sortOrder
-        );
+    /**
+     * @return the cache of the queries for one location, for tests
+     */
+    WeatherQueryCache getQueryCache() {
+        return mQueryCache;
     }
 
     /*
@@ -140,6 +221,8 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        // Every write normalizes its dates, so keep their time zone current from the start
+        JulianDay.register(getContext());
         return true;
     }
 
@@ -152,7 +235,7 @@ public class WeatherProvider extends ContentProvider {
     public String getType(Uri uri) {
 
         // Use the Uri Matcher to determine what kind of URI this is.
-        final int match = sUriMatcher.match(uri);
+        final int match = parseUri(uri).match;
 
         switch (match) {
             // Student: Uncomment and fill out these two cases
@@ -175,16 +258,13 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        ParsedUri parsed = parseUri(uri);
+        switch (parsed.match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getCachedWeatherByLocationSetting(uri, parsed, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -228,30 +308,43 @@ public class WeatherProvider extends ContentProvider {
     public Uri insert(Uri uri, ContentValues values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        WeatherChanges changes = startChanges();
         Uri returnUri;
 
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                // Inside applyBatch, reuse the batch's compiled statement
+                WeatherInserter inserter = mBatchInserter.get();
+                long _id = inserter != null
+                        ? inserter.insert(values)
+                        : db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.addWeather(values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
                 break;
             }
             case LOCATION: {
+                // A location that is being added is in use
+                if (!values.containsKey(WeatherContract.LocationEntry.COLUMN_LAST_USED)) {
+                    values.put(WeatherContract.LocationEntry.COLUMN_LAST_USED,
+                            System.currentTimeMillis());
+                }
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.addUri(uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChanges(db, changes);
         return returnUri;
     }
 
@@ -260,31 +353,34 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        WeatherChanges changes = startChanges();
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
+                changes.addWeather(db, selection, selectionArgs);
                 rowsDeleted = db.delete(
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    changes.addUri(uri);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        // Because a null deletes all rows
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
+        notifyChanges(db, changes);
         return rowsDeleted;
     }
 
     private void normalizeDate(ContentValues values) {
         // normalize the date value
-        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
-            long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        // A date that isn't a number is left for the insert to reject
+        Long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (dateValue != null) {
             values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
         }
     }
@@ -295,53 +391,230 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
+        WeatherChanges changes = startChanges();
 
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
+                changes.addWeather(db, selection, selectionArgs);
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                // Rows moved to another location or day could be anywhere
+                if (rowsUpdated != 0
+                        && (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE))) {
+                    changes.addUri(WeatherContract.WeatherEntry.CONTENT_URI);
+                }
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0) {
+                    changes.addUri(uri);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
+        notifyChanges(db, changes);
         return rowsUpdated;
     }
 
+    /**
+     * Inserts weather rows in one transaction.  Like SQLiteDatabase.insert, an invalid row, as
+     * described by {@link WeatherInserter}, is skipped and the others are still inserted; the
+     * result is the number of rows that were.  insert and applyBatch fail on the same rows.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
+                db.beginTransactionNonExclusive();
                 int returnCount = 0;
+                WeatherChanges changes = startChanges();
+                WeatherInserter inserter = new WeatherInserter(db);
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
+                        try {
+                            if (inserter.insert(value) != -1) {
+                                returnCount++;
+                                changes.addWeather(
+                                        value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                                        value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                            }
+                        } catch (android.database.SQLException e) {
+                            // Skip the invalid row, see above
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    inserter.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                checkpointAfterWrite(db, returnCount);
+                notifyChanges(db, changes);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies the whole batch inside one transaction, so that a sync that touches several
+     * locations is written atomically.  Change notifications are held back until the batch has
+     * committed and each URI is notified once, so observers see one consistent change instead
+     * of reloading after every operation.  A batch that fails notifies nothing.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        WeatherInserter inserter = new WeatherInserter(db);
+        mBatchInserter.set(inserter);
+        WeatherChanges changes = new WeatherChanges();
+        mBatchChanges.set(changes);
+        ContentProviderResult[] results;
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            mBatchChanges.remove();
+            mBatchInserter.remove();
+            inserter.close();
+            db.endTransaction();
+        }
+        checkpointAfterWrite(db, operations.size());
+        notifyChanges(db, changes);
+        return results;
+    }
+
+    /**
+     * Inserts a typed batch of weather rows in one transaction.
+     *
+     * @return the number of rows inserted
+     */
+    private int bulkInsert(WeatherBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int returnCount = 0;
+        WeatherChanges changes = startChanges();
+        db.beginTransactionNonExclusive();
+        WeatherInserter inserter = new WeatherInserter(db);
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                long date = WeatherContract.normalizeDate(batch.getDate(i));
+                if (inserter.insert(batch, i, date) != -1) {
+                    returnCount++;
+                    changes.addWeather(batch.getLocationId(i), date);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+        checkpointAfterWrite(db, returnCount);
+        notifyChanges(db, changes);
+        return returnCount;
+    }
+
+    /**
+     * @return where a write records what it changes: inside applyBatch the batch's changes,
+     * which are notified once it has committed, otherwise a new set.
+     */
+    private WeatherChanges startChanges() {
+        WeatherChanges changes = mBatchChanges.get();
+        return changes != null ? changes : new WeatherChanges();
+    }
+
+    /**
+     * Notifies the changes of a write, unless they belong to the running applyBatch.
+     */
+    private void notifyChanges(SQLiteDatabase db, WeatherChanges changes) {
+        if (changes != mBatchChanges.get()) {
+            changes.notifyChanges(getContext().getContentResolver(), db, mQueryCache);
+        }
+    }
+
+    /**
+     * Checkpoints the write-ahead log after a large write, so it is folded back while no
+     * transaction is open instead of by whichever later write crosses the autocheckpoint.
+     */
+    private static void checkpointAfterWrite(SQLiteDatabase db, int rowsWritten) {
+        if (rowsWritten >= CHECKPOINT_ROWS) {
+            WeatherDbHelper.checkpoint(db);
+        }
+    }
+
+    /**
+     * Exposes the in-memory sync metrics, which live in this process alongside the sync adapter,
+     * the typed bulk insert and read of weather rows, and the compaction of the database.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_GET_SYNC_METRICS.equals(method)) {
+            return SyncMetrics.getInstance().toBundle();
+        }
+        if (WeatherContract.METHOD_BULK_INSERT_WEATHER.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("weather batch required");
+            }
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.KEY_ROW_COUNT, bulkInsert(WeatherBatch.fromBundle(extras)));
+            return result;
+        }
+        if (WeatherContract.METHOD_GET_WEATHER.equals(method)) {
+            if (arg == null) {
+                throw new IllegalArgumentException("location setting required");
+            }
+            return getWeather(arg, extras != null ? extras : Bundle.EMPTY);
+        }
+        if (WeatherContract.METHOD_COMPACT_DATABASE.equals(method)) {
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            WeatherChanges changes = new WeatherChanges();
+            Bundle report = WeatherRetention.compact(db, Utility.getPreferredLocation(getContext()),
+                    System.currentTimeMillis(), changes);
+            notifyChanges(db, changes);
+            return report;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Reads the weather of a location as described by {@link WeatherContract#METHOD_GET_WEATHER}.
+     */
+    private Bundle getWeather(String locationSetting, Bundle extras) {
+        long startDate = 0;
+        if (extras.containsKey(WeatherContract.KEY_START_DATE)) {
+            startDate = WeatherContract.normalizeDate(
+                    extras.getLong(WeatherContract.KEY_START_DATE));
+        }
+        long endDate = Long.MAX_VALUE;
+        if (extras.containsKey(WeatherContract.KEY_END_DATE)) {
+            endDate = WeatherContract.normalizeDate(extras.getLong(WeatherContract.KEY_END_DATE));
+        }
+        int rowCount = extras.getInt(WeatherContract.KEY_ROW_COUNT);
+
+        Cursor cursor = sWeatherByLocationSettingQueryBuilder.query(
+                mOpenHelper.getReadableDatabase(),
+                WeatherBatch.COLUMNS,
+                sLocationSettingWithDateRangeSelection,
+                new String[]{locationSetting, Long.toString(startDate), Long.toString(endDate)},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                rowCount > 0 ? Integer.toString(rowCount) : null
+        );
+        try {
+            return WeatherBatch.fromCursor(cursor).toBundle();
+        } finally {
+            cursor.close();
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
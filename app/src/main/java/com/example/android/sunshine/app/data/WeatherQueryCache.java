@@ -0,0 +1,348 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The results of recent queries for the weather of one location, kept in memory so the screens,
+ * the widgets and the wearable reading the same forecast between two syncs don't each go back to
+ * SQLite.
+ *
+ * Each result remembers the location and range of days it covers, and is dropped when a write
+ * touches one of those days, see {@link WeatherChanges#notifyChanges}.  A result is copied into
+ * plain arrays with the type SQLite gave each value, and real numbers keep the text SQLite made
+ * of them, so values read back exactly as they would from a database cursor.  The cache is
+ * bounded by the size of those copies, and a result too big to be worth keeping isn't cached.
+ * Every caller gets a cursor of its own over the shared copy, which it can move and close.
+ */
+class WeatherQueryCache {
+
+    // Bytes of copied results kept.  A forecast list of a few weeks takes a few kilobytes.
+    private static final int MAX_BYTES = 256 * 1024;
+    // Results bigger than this are returned as they are rather than copied
+    private static final int MAX_RESULT_BYTES = 32 * 1024;
+
+    // Rough costs of the Java objects a copy is made of, for sizing the cache
+    private static final int OBJECT_BYTES = 16;
+    private static final int STRING_BYTES = 40;
+
+    private static final class Result {
+        final String locationSetting;
+        // The days the result covers, inclusive
+        final long firstDate;
+        final long lastDate;
+        final String[] columnNames;
+        final int rowCount;
+        // Indexed by row * columnNames.length + column
+        final int[] types;
+        final Object[] values;
+        // The text of each FIELD_TYPE_FLOAT value, as SQLite formats it
+        final String[] floatTexts;
+        final int bytes;
+
+        Result(String locationSetting, long firstDate, long lastDate, String[] columnNames,
+               int rowCount, int[] types, Object[] values, String[] floatTexts, int bytes) {
+            this.locationSetting = locationSetting;
+            this.firstDate = firstDate;
+            this.lastDate = lastDate;
+            this.columnNames = columnNames;
+            this.rowCount = rowCount;
+            this.types = types;
+            this.values = values;
+            this.floatTexts = floatTexts;
+            this.bytes = bytes;
+        }
+
+        boolean covers(String locationSetting, long firstDate, long lastDate) {
+            return this.locationSetting.equals(locationSetting) &&
+                    this.firstDate <= lastDate && firstDate <= this.lastDate;
+        }
+    }
+
+    /**
+     * A cursor over a cached result, which is never modified, so any number of them can read it.
+     * Conversions between types follow those of a database cursor.
+     */
+    private static final class ResultCursor extends AbstractCursor {
+        private final Result mResult;
+
+        ResultCursor(Result result) {
+            mResult = result;
+        }
+
+        @Override
+        public int getCount() {
+            return mResult.rowCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mResult.columnNames;
+        }
+
+        private int index(int column) {
+            if (column < 0 || column >= mResult.columnNames.length) {
+                throw new CursorIndexOutOfBoundsException(column, mResult.columnNames.length);
+            }
+            checkPosition();
+            return getPosition() * mResult.columnNames.length + column;
+        }
+
+        @Override
+        public int getType(int column) {
+            return mResult.types[index(column)];
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return getType(column) == FIELD_TYPE_NULL;
+        }
+
+        @Override
+        public String getString(int column) {
+            int i = index(column);
+            switch (mResult.types[i]) {
+                case FIELD_TYPE_NULL:
+                    return null;
+                case FIELD_TYPE_FLOAT:
+                    return mResult.floatTexts[i];
+                case FIELD_TYPE_BLOB:
+                    throw new SQLiteException("Unable to convert BLOB to string");
+                default:
+                    return mResult.values[i].toString();
+            }
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            int i = index(column);
+            switch (mResult.types[i]) {
+                case FIELD_TYPE_NULL:
+                    return null;
+                case FIELD_TYPE_BLOB:
+                    return (byte[]) mResult.values[i];
+                case FIELD_TYPE_STRING:
+                    return ((String) mResult.values[i]).getBytes();
+                default:
+                    throw new SQLiteException("Unable to convert number to blob");
+            }
+        }
+
+        @Override
+        public long getLong(int column) {
+            int i = index(column);
+            switch (mResult.types[i]) {
+                case FIELD_TYPE_INTEGER:
+                    return (Long) mResult.values[i];
+                case FIELD_TYPE_FLOAT:
+                    return (long) (double) (Double) mResult.values[i];
+                case FIELD_TYPE_STRING:
+                    return parseLong((String) mResult.values[i]);
+                case FIELD_TYPE_BLOB:
+                    throw new SQLiteException("Unable to convert BLOB to long");
+                default:
+                    return 0;
+            }
+        }
+
+        @Override
+        public double getDouble(int column) {
+            int i = index(column);
+            switch (mResult.types[i]) {
+                case FIELD_TYPE_INTEGER:
+                    return (Long) mResult.values[i];
+                case FIELD_TYPE_FLOAT:
+                    return (Double) mResult.values[i];
+                case FIELD_TYPE_STRING:
+                    return parseDouble((String) mResult.values[i]);
+                case FIELD_TYPE_BLOB:
+                    throw new SQLiteException("Unable to convert BLOB to double");
+                default:
+                    return 0;
+            }
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        // Like a database cursor, text that isn't a number reads as 0
+        private static long parseLong(String text) {
+            try {
+                return Long.parseLong(text.trim());
+            } catch (NumberFormatException e) {
+                return (long) parseDouble(text);
+            }
+        }
+
+        private static double parseDouble(String text) {
+            try {
+                return Double.parseDouble(text.trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+
+    // Only changed while holding the lock of this cache
+    private final LruCache<String, Result> mResults = new LruCache<String, Result>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Result result) {
+            return result.bytes;
+        }
+    };
+
+    // Counts the invalidations, so that a result read before a write isn't stored after it
+    private int mGeneration;
+
+    /**
+     * @return the key of a query for one location, which takes its rows from the URI alone
+     */
+    static String getKey(Uri uri, String[] projection, String sortOrder) {
+        return uri + "|" + Arrays.toString(projection) + "|" + sortOrder;
+    }
+
+    /**
+     * @return a new cursor over the cached result, or null if there is none
+     */
+    synchronized Cursor get(String key) {
+        Result result = mResults.get(key);
+        return result != null ? new ResultCursor(result) : null;
+    }
+
+    /**
+     * @return the generation to pass to {@link #put}, read before the query runs
+     */
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies the result of a query, and keeps it unless a write was invalidated since the query
+     * started, in which case it may already be out of date.
+     *
+     * @param cursor the result, which is closed unless it is returned
+     * @param firstDate the first day the result covers, or 0 for every day
+     * @param lastDate the last day the result covers, or Long.MAX_VALUE
+     * @return a cursor over the copy, to return in place of the one passed in, or the cursor
+     * itself if it is too big to cache
+     */
+    Cursor put(String key, int generation, String locationSetting, long firstDate, long lastDate,
+               Cursor cursor) {
+        Result result = copy(locationSetting, firstDate, lastDate, cursor);
+        if (result == null) {
+            cursor.moveToPosition(-1);
+            return cursor;
+        }
+        cursor.close();
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mResults.put(key, result);
+            }
+            return new ResultCursor(result);
+        }
+    }
+
+    /**
+     * @return a copy of every row of the cursor, or null if it takes more than MAX_RESULT_BYTES
+     */
+    private static Result copy(String locationSetting, long firstDate, long lastDate,
+                               Cursor cursor) {
+        String[] columnNames = cursor.getColumnNames();
+        int columnCount = columnNames.length;
+        int rowCount = cursor.getCount();
+        int cells = rowCount * columnCount;
+        // The three arrays, before the values they point to
+        int bytes = cells * (4 + 4 + 4);
+        if (bytes > MAX_RESULT_BYTES) {
+            return null;
+        }
+        int[] types = new int[cells];
+        Object[] values = new Object[cells];
+        String[] floatTexts = new String[cells];
+        int i = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            for (int column = 0; column < columnCount; column++, i++) {
+                int type = cursor.getType(column);
+                types[i] = type;
+                switch (type) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        values[i] = cursor.getLong(column);
+                        bytes += OBJECT_BYTES;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[i] = cursor.getDouble(column);
+                        floatTexts[i] = cursor.getString(column);
+                        bytes += OBJECT_BYTES + STRING_BYTES + 2 * floatTexts[i].length();
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        String text = cursor.getString(column);
+                        values[i] = text;
+                        bytes += STRING_BYTES + 2 * text.length();
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte[] blob = cursor.getBlob(column);
+                        values[i] = blob;
+                        bytes += OBJECT_BYTES + blob.length;
+                        break;
+                }
+            }
+            if (bytes > MAX_RESULT_BYTES) {
+                return null;
+            }
+        }
+        return new Result(locationSetting, firstDate, lastDate, columnNames, rowCount, types,
+                values, floatTexts, bytes);
+    }
+
+    /**
+     * Drops the results of a location that cover any day from firstDate to lastDate.
+     */
+    synchronized void invalidate(String locationSetting, long firstDate, long lastDate) {
+        mGeneration++;
+        for (Map.Entry<String, Result> entry : mResults.snapshot().entrySet()) {
+            if (entry.getValue().covers(locationSetting, firstDate, lastDate)) {
+                mResults.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Drops every result, for changes that can't be narrowed down to a location and days.
+     */
+    synchronized void clear() {
+        mGeneration++;
+        mResults.evictAll();
+    }
+
+    /**
+     * @return the approximate number of bytes the cached results take
+     */
+    synchronized int size() {
+        return mResults.size();
+    }
+
+    int hitCount() {
+        return mResults.hitCount();
+    }
+}
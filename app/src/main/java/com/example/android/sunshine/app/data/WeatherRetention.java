@@ -0,0 +1,148 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * What the weather database keeps, and the compaction that enforces it.
+ *
+ * Each sync already drops the days that have passed as part of its write.  Compaction, run by
+ * {@link WeatherContract#METHOD_COMPACT_DATABASE} while the device is idle and charging, also
+ * removes what no sync ever cleans up, and gives the freed pages back to the file system.
+ */
+public final class WeatherRetention {
+
+    private static final String LOG_TAG = WeatherRetention.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    // Weather: days before today that are kept.  Nothing in the app shows a day that has passed.
+    public static final int PAST_DAYS_TO_KEEP = 0;
+
+    // Weather rows older than the date passed as its argument, see getOldWeatherSelectionArgs
+    public static final String OLD_WEATHER_SELECTION = WeatherEntry.COLUMN_DATE + " < ?";
+
+    // Location: days a location other than the preferred one is kept after it was last used.
+    // Once they have passed the sync stops fetching its forecast, and compaction removes it
+    // along with its weather.
+    public static final int UNUSED_DAYS_TO_KEEP_LOCATION = 30;
+
+    // Weather whose location has been removed, which no query can return
+    private static final String ORPHAN_WEATHER_SELECTION = WeatherEntry.COLUMN_LOC_KEY +
+            " NOT IN (SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME + ")";
+
+    // Locations other than the preferred one, the first argument, last used before the time
+    // given as the second.  Whether they still have weather doesn't matter: the sync would
+    // otherwise keep fetching it for every location ever chosen.
+    private static final String UNUSED_LOCATION_SELECTION =
+            LocationEntry.COLUMN_LOCATION_SETTING + " != ? AND " +
+                    LocationEntry.COLUMN_LAST_USED + " < ?";
+
+    // PRAGMA auto_vacuum value that lets incremental_vacuum return free pages
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    private WeatherRetention() {
+    }
+
+    /**
+     * @param now the current time
+     * @return the arguments of {@link #OLD_WEATHER_SELECTION}
+     */
+    public static String[] getOldWeatherSelectionArgs(long now) {
+        long firstDateToKeep =
+                WeatherContract.normalizeDate(now - PAST_DAYS_TO_KEEP * DAY_IN_MILLIS);
+        return new String[]{Long.toString(firstDateToKeep)};
+    }
+
+    /**
+     * @param now the current time
+     * @return the earliest {@link LocationEntry#COLUMN_LAST_USED} of a location that is kept
+     */
+    public static long getOldestUseToKeep(long now) {
+        return now - UNUSED_DAYS_TO_KEEP_LOCATION * DAY_IN_MILLIS;
+    }
+
+    /**
+     * Deletes everything the policies don't keep, then shrinks the file.
+     *
+     * @param preferredLocation the location setting that is kept however long ago it was used
+     * @param changes records the rows that were deleted, to be notified by the caller
+     * @return the report described by {@link WeatherContract#METHOD_COMPACT_DATABASE}
+     */
+    static Bundle compact(SQLiteDatabase db, String preferredLocation, long now,
+                          WeatherChanges changes) {
+        long sizeBefore = getDatabaseSize(db);
+        int weatherDeleted = 0;
+        int locationsDeleted;
+
+        db.beginTransactionNonExclusive();
+        try {
+            String[] oldWeatherSelectionArgs = getOldWeatherSelectionArgs(now);
+            changes.addWeather(db, OLD_WEATHER_SELECTION, oldWeatherSelectionArgs);
+            weatherDeleted += db.delete(WeatherEntry.TABLE_NAME, OLD_WEATHER_SELECTION,
+                    oldWeatherSelectionArgs);
+
+            locationsDeleted = db.delete(LocationEntry.TABLE_NAME, UNUSED_LOCATION_SELECTION,
+                    new String[]{preferredLocation, Long.toString(getOldestUseToKeep(now))});
+            if (locationsDeleted != 0) {
+                changes.addUri(LocationEntry.CONTENT_URI);
+            }
+
+            // Includes the weather of the locations just removed
+            changes.addWeather(db, ORPHAN_WEATHER_SELECTION, null);
+            weatherDeleted += db.delete(WeatherEntry.TABLE_NAME, ORPHAN_WEATHER_SELECTION, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        vacuum(db);
+        WeatherDbHelper.checkpoint(db);
+        long sizeAfter = getDatabaseSize(db);
+        Log.i(LOG_TAG, "Compacted database from " + sizeBefore + " to " + sizeAfter +
+                " bytes, deleted " + weatherDeleted + " weather rows and " + locationsDeleted +
+                " locations");
+
+        Bundle report = new Bundle();
+        report.putLong(WeatherContract.KEY_SIZE_BEFORE, sizeBefore);
+        report.putLong(WeatherContract.KEY_SIZE_AFTER, sizeAfter);
+        report.putInt(WeatherContract.KEY_ROW_COUNT, weatherDeleted);
+        report.putInt(WeatherContract.KEY_LOCATION_COUNT, locationsDeleted);
+        return report;
+    }
+
+    /**
+     * Returns the free pages to the file system.  auto_vacuum can only be chosen before the
+     * database file is first written, which happens when it is switched to write-ahead logging,
+     * so the first run converts the database with one full VACUUM.  After that each run is
+     * incremental.
+     */
+    private static void vacuum(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            return;
+        }
+        // Each step of incremental_vacuum frees one page, so it has to be read to the end
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the size of the database in bytes, not counting the write-ahead log
+     */
+    static long getDatabaseSize(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) *
+                DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+}
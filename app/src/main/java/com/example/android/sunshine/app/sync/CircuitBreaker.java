@@ -0,0 +1,119 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * Circuit breaker for the forecast endpoint of one location.
+ *
+ * After {@link #FAILURE_THRESHOLD} failures in a row the breaker opens and the location isn't
+ * fetched again until its backoff has passed.  The backoff doubles every time the breaker opens
+ * again, up to {@link #MAX_BACKOFF_MILLIS}, and is jittered so that devices which failed together
+ * don't all come back at the same moment.  Once the backoff has passed the breaker is half open:
+ * one request is let through, which closes the breaker if it succeeds and opens it again if not.
+ *
+ * Time is always passed in, so the state machine can be driven by a fake clock in tests.
+ */
+public class CircuitBreaker {
+
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long BASE_BACKOFF_MILLIS = 15 * 60 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 24 * 60 * 60 * 1000;
+    // Fraction of the backoff that is randomized
+    static final double JITTER = 0.5;
+
+    private final Random mRandom;
+    private int mState = STATE_CLOSED;
+    private int mFailures;
+    // How many times the breaker opened without a success in between
+    private int mOpenCount;
+    private long mOpenUntil;
+
+    public CircuitBreaker(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * @return true if the location may be fetched now.  Moves an open breaker whose backoff has
+     * passed to half open.
+     */
+    public boolean allowRequest(long now) {
+        if (mState == STATE_OPEN && now >= mOpenUntil) {
+            mState = STATE_HALF_OPEN;
+        }
+        return mState != STATE_OPEN;
+    }
+
+    public void onSuccess() {
+        mState = STATE_CLOSED;
+        mFailures = 0;
+        mOpenCount = 0;
+        mOpenUntil = 0;
+    }
+
+    public void onFailure(long now) {
+        mFailures++;
+        if (mState == STATE_HALF_OPEN || mFailures >= FAILURE_THRESHOLD) {
+            mState = STATE_OPEN;
+            mOpenUntil = now + getBackoff(mOpenCount);
+            mOpenCount++;
+        }
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    /**
+     * @return when an open breaker lets the next request through, or 0 if it isn't open.
+     */
+    public long getOpenUntil() {
+        return mState == STATE_OPEN ? mOpenUntil : 0;
+    }
+
+    /**
+     * Exponential backoff with jitter: the first half of the delay is fixed, the rest is random.
+     */
+    long getBackoff(int openCount) {
+        long backoff = BASE_BACKOFF_MILLIS << Math.min(openCount, 30);
+        if (backoff <= 0 || backoff > MAX_BACKOFF_MILLIS) {
+            backoff = MAX_BACKOFF_MILLIS;
+        }
+        long jitter = (long) (backoff * JITTER);
+        return backoff - jitter + (long) (mRandom.nextDouble() * jitter);
+    }
+
+    /**
+     * @return the state in a form that can be kept in the shared preferences.
+     */
+    public String toPreference() {
+        return mState + "," + mFailures + "," + mOpenCount + "," + mOpenUntil;
+    }
+
+    /**
+     * Restores a breaker saved with {@link #toPreference()}.  A missing or unreadable value gives
+     * a closed breaker.
+     */
+    public static CircuitBreaker fromPreference(String value, Random random) {
+        CircuitBreaker breaker = new CircuitBreaker(random);
+        if (value == null) {
+            return breaker;
+        }
+        String[] fields = value.split(",");
+        if (fields.length != 4) {
+            return breaker;
+        }
+        try {
+            breaker.mState = Integer.parseInt(fields[0]);
+            breaker.mFailures = Integer.parseInt(fields[1]);
+            breaker.mOpenCount = Integer.parseInt(fields[2]);
+            breaker.mOpenUntil = Long.parseLong(fields[3]);
+        } catch (NumberFormatException e) {
+            return new CircuitBreaker(random);
+        }
+        return breaker;
+    }
+}
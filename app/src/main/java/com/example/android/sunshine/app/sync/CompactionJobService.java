@@ -0,0 +1,71 @@
+package com.example.android.sunshine.app.sync;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherRetention;
+
+/**
+ * Applies {@link WeatherRetention} to the weather database about once a day, while the device
+ * is idle and charging, so the deletes and the vacuum never compete with the user or the battery.
+ */
+public class CompactionJobService extends JobService {
+    private static final String LOG_TAG = CompactionJobService.class.getSimpleName();
+
+    private static final int JOB_ID = 1;
+    private static final long COMPACTION_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    private Thread mThread;
+
+    /**
+     * Schedules the compaction unless it already is, so that calling this on every start doesn't
+     * push the next run back.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, CompactionJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(COMPACTION_INTERVAL_MILLIS)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mThread = new Thread("CompactionJobService") {
+            @Override
+            public void run() {
+                Bundle report = getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.METHOD_COMPACT_DATABASE, null, null);
+                Log.d(LOG_TAG, "Database went from " +
+                        report.getLong(WeatherContract.KEY_SIZE_BEFORE) + " to " +
+                        report.getLong(WeatherContract.KEY_SIZE_AFTER) + " bytes");
+                jobFinished(params, false);
+            }
+        };
+        mThread.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The compaction runs as a few short transactions and can't be interrupted midway.
+        // Whatever it didn't get to is done by the next run.
+        return false;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.util.LongSparseArray;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares freshly parsed forecast rows with what the provider already stores for the same
+ * location, so that the sync only writes the days that actually changed.  When nothing changed
+ * there is no write, no change notification and no fan-out to widgets, Muzei or the watch.
+ */
+public class ForecastDiff {
+
+    private static final String[] STORED_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_HUMIDITY = 4;
+    private static final int INDEX_PRESSURE = 5;
+    private static final int INDEX_WIND = 6;
+
+    private ForecastDiff() {
+    }
+
+    /**
+     * Returns the parsed days that are missing from, or differ from, the stored forecast of a
+     * location.
+     *
+     * @param provider the provider client handed to onPerformSync
+     * @param locationId the row ID of the location the days belong to
+     * @param days the parsed days, keyed by COLUMN_DATE
+     */
+    public static List<ContentValues> getChangedDays(ContentProviderClient provider,
+                                                     long locationId, List<ContentValues> days)
+            throws RemoteException {
+        if (days.isEmpty()) {
+            return days;
+        }
+
+        long firstDate = Long.MAX_VALUE;
+        long lastDate = Long.MIN_VALUE;
+        for (ContentValues day : days) {
+            long date = day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            firstDate = Math.min(firstDate, date);
+            lastDate = Math.max(lastDate, date);
+        }
+
+        Cursor stored = provider.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                STORED_PROJECTION,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(locationId), Long.toString(firstDate),
+                        Long.toString(lastDate)},
+                null);
+        if (stored == null) {
+            return days;
+        }
+
+        LongSparseArray<Integer> storedPositions = new LongSparseArray<Integer>(stored.getCount());
+        while (stored.moveToNext()) {
+            storedPositions.put(stored.getLong(INDEX_DATE), stored.getPosition());
+        }
+
+        List<ContentValues> changed = new ArrayList<ContentValues>();
+        for (ContentValues day : days) {
+            Integer position = storedPositions.get(
+                    day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            if (position == null || !stored.moveToPosition(position) || !isSameDay(stored, day)) {
+                changed.add(day);
+            }
+        }
+        stored.close();
+        return changed;
+    }
+
+    /**
+     * @return true if the stored row under the cursor holds the same forecast as the values.
+     */
+    static boolean isSameDay(Cursor stored, ContentValues day) {
+        return stored.getInt(INDEX_WEATHER_ID)
+                == day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID)
+                && sameValue(stored, INDEX_MIN_TEMP, day, WeatherContract.WeatherEntry.COLUMN_MIN_TEMP)
+                && sameValue(stored, INDEX_MAX_TEMP, day, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)
+                && sameValue(stored, INDEX_HUMIDITY, day, WeatherContract.WeatherEntry.COLUMN_HUMIDITY)
+                && sameValue(stored, INDEX_PRESSURE, day, WeatherContract.WeatherEntry.COLUMN_PRESSURE)
+                && sameValue(stored, INDEX_WIND, day, WeatherContract.WeatherEntry.COLUMN_WIND);
+    }
+
+    private static boolean sameValue(Cursor stored, int index, ContentValues day, String column) {
+        Integer value = day.getAsInteger(column);
+        // Both sides hold the stored fixed point encoding, so they compare exactly
+        return value != null && stored.getInt(index) == value;
+    }
+}
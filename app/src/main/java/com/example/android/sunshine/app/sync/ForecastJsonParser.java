@@ -0,0 +1,302 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.JulianDay;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.Vector;
+
+/**
+ * Turns an OpenWeatherMap daily forecast response into weather rows.
+ *
+ * The streaming parser reads straight from the HTTP stream and builds one ContentValues per
+ * element of the "list" array as it arrives, so a response never exists as a String and a
+ * JSONObject tree at the same time.  The DOM parser is kept for callers that already hold the
+ * response as a String, and as a reference for the benchmark in the tests.
+ *
+ * Rows produced by either parser do not carry a location key; the sync adapter adds it once
+ * the location has been resolved.
+ */
+public class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * The result of parsing one forecast response.
+     */
+    public static class Forecast {
+        // The "cod" value returned by the server, HTTP_OK if it wasn't present.
+        public int code = HttpURLConnection.HTTP_OK;
+        public String cityName;
+        public double cityLatitude;
+        public double cityLongitude;
+        public final Vector<ContentValues> days = new Vector<ContentValues>();
+
+        public boolean hasCity() {
+            return cityName != null;
+        }
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Pull-parses a forecast response from a stream.  The stream is not closed.
+     *
+     * @param in the raw response body
+     * @param julianStartDay the julian day of the first element of the "list" array
+     */
+    public static Forecast parse(InputStream in, int julianStartDay)
+            throws IOException, JSONException {
+        Forecast forecast = new Forecast();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    forecast.code = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, forecast);
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    int i = 0;
+                    while (reader.hasNext()) {
+                        ContentValues weatherValues = readDay(reader);
+                        // Cheating to convert this to UTC time, which is what we want anyhow
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                                JulianDay.toMillis(julianStartDay + i));
+                        forecast.days.add(weatherValues);
+                        i++;
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // Report structural problems the same way the DOM parser does, so that a bad payload
+            // isn't mistaken for a network failure.
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+
+        if (forecast.code == HttpURLConnection.HTTP_OK && !forecast.hasCity()) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        return forecast;
+    }
+
+    private static void readCity(JsonReader reader, Forecast forecast)
+            throws IOException, JSONException {
+        boolean hasLatitude = false;
+        boolean hasLongitude = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.cityLatitude = reader.nextDouble();
+                        hasLatitude = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.cityLongitude = reader.nextDouble();
+                        hasLongitude = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (forecast.cityName == null || !hasLatitude || !hasLongitude) {
+            throw new JSONException("Incomplete " + OWM_CITY + " object");
+        }
+    }
+
+    private static ContentValues readDay(JsonReader reader) throws IOException, JSONException {
+        ContentValues weatherValues = new ContentValues();
+        // Wind speed and direction are stored together, so hold on to them until both are read
+        double windSpeed = Double.NaN;
+        double windDirection = Double.NaN;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                        WeatherContract.WeatherEntry.encodePressure(reader.nextDouble()));
+            } else if (OWM_HUMIDITY.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                        WeatherContract.WeatherEntry.encodeHumidity(reader.nextDouble()));
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                                WeatherContract.WeatherEntry.encodeTemperature(reader.nextDouble()));
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                                WeatherContract.WeatherEntry.encodeTemperature(reader.nextDouble()));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // The weather code is in a child array called "weather", which is 1 element
+                // long.  Its description isn't stored, the app has its own for each code.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (!first) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    first = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, reader.nextInt());
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_PRESSURE)
+                || !weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_HUMIDITY)
+                || Double.isNaN(windSpeed)
+                || Double.isNaN(windDirection)
+                || !weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)
+                || !weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP)
+                || !weatherValues.containsKey(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID)) {
+            throw new JSONException("Incomplete " + OWM_LIST + " element");
+        }
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND,
+                WeatherContract.WeatherEntry.encodeWind(windSpeed, windDirection));
+        return weatherValues;
+    }
+
+    /**
+     * Parses a forecast response that has already been read into a String, by building the
+     * complete JSONObject tree first.
+     *
+     * @param forecastJsonStr the raw response body
+     * @param julianStartDay the julian day of the first element of the "list" array
+     */
+    public static Forecast parse(String forecastJsonStr, int julianStartDay)
+            throws JSONException {
+        Forecast forecast = new Forecast();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.code = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (forecast.code != HttpURLConnection.HTTP_OK) {
+                return forecast;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        forecast.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        forecast.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    JulianDay.toMillis(julianStartDay + i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherContract.WeatherEntry.encodeHumidity(dayForecast.getDouble(OWM_HUMIDITY)));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    WeatherContract.WeatherEntry.encodePressure(dayForecast.getDouble(OWM_PRESSURE)));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND,
+                    WeatherContract.WeatherEntry.encodeWind(dayForecast.getDouble(OWM_WINDSPEED),
+                            dayForecast.getDouble(OWM_WIND_DIRECTION)));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                    WeatherContract.WeatherEntry.encodeTemperature(temperatureObject.getDouble(OWM_MAX)));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                    WeatherContract.WeatherEntry.encodeTemperature(temperatureObject.getDouble(OWM_MIN)));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                    weatherObject.getInt(OWM_WEATHER_ID));
+
+            forecast.days.add(weatherValues);
+        }
+        return forecast;
+    }
+}
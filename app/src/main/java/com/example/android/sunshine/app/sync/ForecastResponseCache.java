@@ -0,0 +1,359 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * On-disk cache of forecast responses, keyed by the forecast request Uri.
+ *
+ * Each entry keeps the response body together with the validators (ETag, Last-Modified) and
+ * the freshness lifetime the server sent with it.  The sync adapter uses an entry to skip the
+ * request entirely while it is fresh, and to send a conditional request once it isn't.  In both
+ * cases an unchanged forecast is neither parsed nor written to the provider again.
+ */
+public class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String META_URL = "url";
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "last_modified";
+    private static final String META_EXPIRES = "expires";
+    private static final String META_DAYS = "days";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String MAX_AGE = "max-age=";
+
+    private final File mDirectory;
+
+    /**
+     * The cached metadata of one forecast response.
+     */
+    public static class Entry {
+        final String url;
+        final String etag;
+        final long lastModified;
+        final long expires;
+        // The number of forecast days in the body
+        final int days;
+
+        Entry(String url, String etag, long lastModified, long expires, int days) {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+            this.days = days;
+        }
+
+        /**
+         * @return the number of forecast days in the cached body
+         */
+        public int getDays() {
+            return days;
+        }
+
+        /**
+         * @return true if the server allows this response to be reused without asking again.
+         */
+        public boolean isFresh(long now) {
+            return now < expires;
+        }
+    }
+
+    public ForecastResponseCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * @return the cached entry for this request, or null if there is none.
+     */
+    public Entry get(Uri uri) {
+        String url = uri.toString();
+        File metaFile = new File(mDirectory, key(url) + META_SUFFIX);
+        if (!metaFile.exists() || !new File(mDirectory, key(url) + BODY_SUFFIX).exists()) {
+            return null;
+        }
+        Properties meta = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(metaFile);
+            meta.load(in);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error reading cache entry for " + url, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+        // Guard against a key collision
+        if (!url.equals(meta.getProperty(META_URL))) {
+            return null;
+        }
+        try {
+            return new Entry(url,
+                    meta.getProperty(META_ETAG),
+                    Long.parseLong(meta.getProperty(META_LAST_MODIFIED, "0")),
+                    Long.parseLong(meta.getProperty(META_EXPIRES, "0")),
+                    Integer.parseInt(meta.getProperty(META_DAYS, "0")));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens the cached body of an entry.
+     */
+    public InputStream openBody(Entry entry) throws IOException {
+        return new FileInputStream(new File(mDirectory, key(entry.url) + BODY_SUFFIX));
+    }
+
+    /**
+     * Adds the validators of a cached entry to a request that hasn't been sent yet.
+     */
+    public static void addConditionalHeaders(HttpURLConnection urlConnection, Entry entry) {
+        if (entry.etag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, entry.etag);
+        }
+        if (entry.lastModified > 0) {
+            urlConnection.setIfModifiedSince(entry.lastModified);
+        }
+    }
+
+    /**
+     * Records that the server confirmed an entry is still valid (a 304 response), extending its
+     * freshness with the headers of the new response.
+     */
+    public void refresh(Entry entry, HttpURLConnection urlConnection, long now) {
+        String etag = urlConnection.getHeaderField(HEADER_ETAG);
+        long lastModified = urlConnection.getLastModified();
+        writeMeta(new Entry(entry.url,
+                etag != null ? etag : entry.etag,
+                lastModified > 0 ? lastModified : entry.lastModified,
+                getExpires(urlConnection, now),
+                entry.days));
+    }
+
+    /**
+     * Wraps the body of a 200 response so that it is copied into the cache while it is being
+     * read.  The copy only replaces the cached entry once {@link CachingInputStream#commit} is
+     * called, so a response that fails to parse, or whose forecast fails to be stored, is never
+     * cached.
+     */
+    public CachingInputStream put(Uri uri, HttpURLConnection urlConnection, InputStream body,
+                                  long now) throws IOException {
+        String url = uri.toString();
+        Entry entry = new Entry(url,
+                urlConnection.getHeaderField(HEADER_ETAG),
+                urlConnection.getLastModified(),
+                getExpires(urlConnection, now),
+                0);
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+        File tempFile = new File(mDirectory, key(url) + TEMP_SUFFIX);
+        return new CachingInputStream(body, entry, tempFile);
+    }
+
+    /**
+     * Removes every cached response.
+     */
+    public void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * An input stream that copies everything read through it into a pending cache entry.
+     */
+    public class CachingInputStream extends FilterInputStream {
+        private final Entry mEntry;
+        private final File mTempFile;
+        private OutputStream mOut;
+
+        CachingInputStream(InputStream in, Entry entry, File tempFile) throws IOException {
+            super(in);
+            mEntry = entry;
+            mTempFile = tempFile;
+            mOut = new FileOutputStream(tempFile);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && mOut != null) {
+                mOut.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0 && mOut != null) {
+                mOut.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            // Skipped bytes still have to end up in the copy
+            byte[] buffer = new byte[(int) Math.min(byteCount, 1024)];
+            long skipped = 0;
+            while (skipped < byteCount) {
+                int read = read(buffer, 0, (int) Math.min(byteCount - skipped, buffer.length));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Drains the rest of the body into the copy, without making it the cached entry yet.
+         * This has to happen before the connection is released; the copy can be committed or
+         * discarded afterwards.
+         */
+        public void finish() throws IOException {
+            byte[] buffer = new byte[1024];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // keep copying
+            }
+            mOut.close();
+            mOut = null;
+        }
+
+        /**
+         * Makes the copy the cached entry for its request, draining the rest of the body first
+         * unless {@link #finish()} already did.
+         *
+         * @param days the number of forecast days in the body
+         */
+        public void commit(int days) throws IOException {
+            if (mOut != null) {
+                finish();
+            }
+            File bodyFile = new File(mDirectory, key(mEntry.url) + BODY_SUFFIX);
+            if (!mTempFile.renameTo(bodyFile)) {
+                throw new IOException("Unable to commit " + bodyFile);
+            }
+            writeMeta(new Entry(mEntry.url, mEntry.etag, mEntry.lastModified, mEntry.expires,
+                    days));
+        }
+
+        /**
+         * Throws away a finished copy, leaving the cached entry as it was.
+         */
+        public void discard() {
+            mTempFile.delete();
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (mOut != null) {
+                // Never committed: throw the partial copy away
+                closeQuietly(mOut);
+                mOut = null;
+                mTempFile.delete();
+            }
+        }
+    }
+
+    private void writeMeta(Entry entry) {
+        Properties meta = new Properties();
+        meta.setProperty(META_URL, entry.url);
+        if (entry.etag != null) {
+            meta.setProperty(META_ETAG, entry.etag);
+        }
+        meta.setProperty(META_LAST_MODIFIED, Long.toString(entry.lastModified));
+        meta.setProperty(META_EXPIRES, Long.toString(entry.expires));
+        meta.setProperty(META_DAYS, Integer.toString(entry.days));
+
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(new File(mDirectory, key(entry.url) + META_SUFFIX));
+            meta.store(out, null);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error writing cache entry for " + entry.url, e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Works out until when a response may be reused, preferring Cache-Control: max-age over the
+     * Expires header.
+     */
+    static long getExpires(HttpURLConnection urlConnection, long now) {
+        String cacheControl = urlConnection.getHeaderField(HEADER_CACHE_CONTROL);
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return 0;
+                }
+                if (directive.startsWith(MAX_AGE)) {
+                    try {
+                        return now + Long.parseLong(directive.substring(MAX_AGE.length())) * 1000;
+                    } catch (NumberFormatException e) {
+                        // fall through to Expires
+                    }
+                }
+            }
+        }
+        return urlConnection.getExpiration();
+    }
+
+    private static String key(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where the sync adapter gets its forecasts from.
+ *
+ * A source knows how to ask a forecast server for one location and how to read its answer.
+ * Transport, caching and storage stay in the sync adapter, so a source can be swapped for a
+ * stand-in server without changing anything else in the sync pipeline.
+ */
+public interface ForecastSource {
+
+    /**
+     * @return the request for the daily forecast of a location.
+     */
+    Uri getForecastUri(String locationSetting);
+
+    /**
+     * Parses a forecast response.
+     *
+     * @param julianStartDay the julian day of the first forecast day
+     */
+    ForecastJsonParser.Forecast parse(InputStream in, int julianStartDay)
+            throws IOException, JSONException;
+}
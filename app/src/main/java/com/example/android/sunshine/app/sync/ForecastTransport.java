@@ -0,0 +1,259 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP transport used by the sync adapter to talk to the forecast server.
+ *
+ * Connections are never disconnected explicitly: {@link #release} drains and closes the body
+ * instead, which hands the socket back to the platform's HttpURLConnection keep-alive pool so
+ * that the next location, or the next sync, can reuse it without a new TCP/TLS handshake.  The
+ * pool's own settings are left alone, since they are shared by the whole process; its default
+ * of five idle connections covers the requests a sync runs in parallel.  Responses are
+ * requested with gzip and decompressed here, so the byte counters see the real amount sent over
+ * the network.
+ */
+public class ForecastTransport {
+    private static final String LOG_TAG = ForecastTransport.class.getSimpleName();
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mBytesReceived = new AtomicLong();
+    private final AtomicLong mBytesDecoded = new AtomicLong();
+    private final AtomicLong mConnectNanos = new AtomicLong();
+    private final AtomicLong mDownloadNanos = new AtomicLong();
+    private final SyncMetrics mMetrics;
+
+    public ForecastTransport() {
+        this(new SyncMetrics());
+    }
+
+    /**
+     * @param metrics receives the connect and download time of every request
+     */
+    public ForecastTransport(SyncMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Opens a GET request without connecting it, so the caller can still add request headers.
+     * The caller must pass the connection to {@link #release(HttpURLConnection, InputStream)}
+     * once it is done with it.
+     */
+    public HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        // Asking for gzip explicitly turns off the platform's transparent decompression, so we
+        // can count compressed bytes and decompress the body ourselves.
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        return urlConnection;
+    }
+
+    /**
+     * Sends the request and waits for the response status.
+     */
+    public void connect(HttpURLConnection urlConnection) throws IOException {
+        long start = SystemClock.elapsedRealtimeNanos();
+        urlConnection.connect();
+        // getResponseCode waits for the status line, so this covers DNS, connect and the
+        // time to first byte.
+        urlConnection.getResponseCode();
+        long nanos = SystemClock.elapsedRealtimeNanos() - start;
+        mConnectNanos.addAndGet(nanos);
+        mMetrics.record(SyncMetrics.STAGE_CONNECT, nanos);
+        mRequests.incrementAndGet();
+    }
+
+    /**
+     * Returns the decoded body of a successful response.  Closing it drains whatever hasn't been
+     * read so that the connection can go back to the pool.  Like
+     * {@link HttpURLConnection#getInputStream()}, this throws for an error status, whose body
+     * {@link #release(HttpURLConnection, InputStream)} drains instead.
+     */
+    public InputStream getInputStream(HttpURLConnection urlConnection) throws IOException {
+        InputStream raw = urlConnection.getInputStream();
+        if (raw == null) {
+            return null;
+        }
+        CountingInputStream counted = new CountingInputStream(raw, mBytesReceived);
+        InputStream decoded = ENCODING_GZIP.equalsIgnoreCase(urlConnection.getContentEncoding())
+                ? new GZIPInputStream(counted)
+                : counted;
+        return new BodyInputStream(decoded, counted);
+    }
+
+    /**
+     * Hands a connection back to the pool.
+     *
+     * @param body the stream returned by {@link #getInputStream(HttpURLConnection)}, or null if
+     *             the body was never requested
+     */
+    public void release(HttpURLConnection urlConnection, InputStream body) {
+        try {
+            if (body == null) {
+                InputStream stream =
+                        urlConnection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                                ? urlConnection.getErrorStream()
+                                : urlConnection.getInputStream();
+                body = stream != null ? new CountingInputStream(stream, mBytesReceived) : null;
+            }
+            if (body != null) {
+                drain(body);
+                body.close();
+            }
+        } catch (IOException e) {
+            // The connection is broken anyway, so make sure it doesn't go back into the pool
+            urlConnection.disconnect();
+        }
+    }
+
+    public long getRequestCount() {
+        return mRequests.get();
+    }
+
+    /**
+     * @return the number of body bytes received from the network, before decompression.
+     */
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    /**
+     * @return the number of body bytes after decompression.
+     */
+    public long getBytesDecoded() {
+        return mBytesDecoded.get();
+    }
+
+    public long getConnectNanos() {
+        return mConnectNanos.get();
+    }
+
+    public long getDownloadNanos() {
+        return mDownloadNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%d requests, %d bytes received, %d bytes decoded, connect %d ms, download %d ms",
+                getRequestCount(), getBytesReceived(), getBytesDecoded(),
+                getConnectNanos() / 1000000, getDownloadNanos() / 1000000);
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+    }
+
+    /**
+     * Counts the bytes that are read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong mCounter;
+        private long mCount;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            mCounter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCounter.incrementAndGet();
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCounter.addAndGet(read);
+                mCount += read;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * The decoded body of a response.  Counts decoded bytes and the time spent reading, and
+     * drains the raw stream on close so the connection can be reused.
+     */
+    private class BodyInputStream extends FilterInputStream {
+        private final CountingInputStream mRaw;
+        private long mReadNanos;
+        private boolean mClosed;
+
+        BodyInputStream(InputStream decoded, CountingInputStream raw) {
+            super(decoded);
+            mRaw = raw;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mClosed) {
+                return -1;
+            }
+            long start = SystemClock.elapsedRealtimeNanos();
+            int b = super.read();
+            mReadNanos += SystemClock.elapsedRealtimeNanos() - start;
+            if (b != -1) {
+                mBytesDecoded.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (mClosed) {
+                return -1;
+            }
+            long start = SystemClock.elapsedRealtimeNanos();
+            int read = super.read(buffer, offset, count);
+            mReadNanos += SystemClock.elapsedRealtimeNanos() - start;
+            if (read > 0) {
+                mBytesDecoded.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                drain(mRaw);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Error draining response", e);
+            }
+            mDownloadNanos.addAndGet(mReadNanos);
+            mMetrics.record(SyncMetrics.STAGE_DOWNLOAD, mReadNanos, mRaw.mCount);
+            super.close();
+        }
+    }
+}
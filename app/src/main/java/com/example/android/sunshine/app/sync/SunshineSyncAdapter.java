@@ -7,35 +7,41 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.JulianDay;
+import com.example.android.sunshine.app.data.LocationIdCache;
+import com.example.android.sunshine.app.data.TodaySnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherRetention;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -45,29 +51,40 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Interval at which to sync with the weather under average conditions, in seconds.
+    // SyncScheduler adapts it to the weather and to how the device is used.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
+    // Maximum number of locations fetched at the same time during a sync.
+    private static final int SYNC_PARALLELISM = 4;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
     GoogleApiClient mGoogleApiClient;
@@ -78,19 +95,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
 
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {}
@@ -102,282 +106,540 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_INVALID = 4;
 
     private static final String ACTION_UPDATE_WEATHER_WATCHFACE = "UPDATE_WEATHER";
+    static final String FORECAST_CACHE_DIR = "forecast";
+
+    private final ForecastResponseCache mResponseCache;
+    private final SyncMetrics mMetrics = SyncMetrics.getInstance();
+    // Jitters the circuit breaker backoff
+    private final Random mRandom = new Random();
+    // Outlives a single sync, so that connections are reused across locations and syncs.
+    private final ForecastTransport mTransport = new ForecastTransport(mMetrics);
+
+    private final ForecastSource mSource;
+    private final LocationIdCache mLocationIds;
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize, new OpenWeatherMapSource());
+    }
+
+    /**
+     * @param source the server to fetch forecasts from
+     */
+    public SunshineSyncAdapter(Context context, boolean autoInitialize, ForecastSource source) {
         super(context, autoInitialize);
+        mSource = source;
+        mLocationIds = LocationIdCache.getInstance(context);
+        mResponseCache = new ForecastResponseCache(
+                new File(context.getCacheDir(), FORECAST_CACHE_DIR));
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+        long syncStart = SystemClock.elapsedRealtimeNanos();
+        long now = System.currentTimeMillis();
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+        Set<String> storedLocations = new HashSet<String>();
+        List<String> locationSettings =
+                getTrackedLocations(preferredLocation, storedLocations, now);
+        recordLocationUsed(provider, preferredLocation, now);
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = JulianDay.fromMillis(System.currentTimeMillis());
+
+        // Locations whose endpoint keeps failing are left alone until their backoff has passed
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getContext());
+        Map<String, CircuitBreaker> breakers = new HashMap<String, CircuitBreaker>();
+        List<String> fetchedLocations = new ArrayList<String>(locationSettings.size());
+        for (String locationSetting : locationSettings) {
+            CircuitBreaker breaker = CircuitBreaker.fromPreference(
+                    prefs.getString(getCircuitBreakerKey(getContext(), locationSetting), null),
+                    mRandom);
+            breakers.put(locationSetting, breaker);
+            if (breaker.allowRequest(now)) {
+                fetchedLocations.add(locationSetting);
+            } else {
+                Log.d(LOG_TAG, "Skipping " + locationSetting + " until " + breaker.getOpenUntil());
+                syncResult.stats.numSkippedEntries++;
             }
+        }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+        // Fetch every tracked location on a small pool of workers.  The round trips overlap,
+        // but nothing is written until all of them have finished.
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(SYNC_PARALLELISM, fetchedLocations.size())));
+        List<Future<LocationForecast>> futures =
+                new ArrayList<Future<LocationForecast>>(fetchedLocations.size());
+        for (String locationSetting : fetchedLocations) {
+            futures.add(executor.submit(new FetchForecastTask(locationSetting, julianStartDay,
+                    storedLocations.contains(locationSetting))));
+        }
+        executor.shutdown();
+
+        List<LocationForecast> results = new ArrayList<LocationForecast>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                // The sync was cancelled; drop whatever hasn't been fetched yet.
+                Log.w(LOG_TAG, "Sync interrupted", e);
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
                 return;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error ", e.getCause());
+                results.add(new LocationForecast(fetchedLocations.get(i),
+                        LOCATION_STATUS_SERVER_DOWN, null));
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+        }
+
+        updateCircuitBreakers(prefs, breakers, results, now, syncResult);
+
+        LocationForecast preferredForecast = null;
+        int changedDays = 0;
+        try {
+            changedDays = writeForecasts(provider, results, now);
+            finishResponses(results, true);
+            if (changedDays > 0) {
+                for (LocationForecast result : results) {
+                    if (result.changed && result.locationSetting.equals(preferredLocation)) {
+                        preferredForecast = result;
+                    }
+                }
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error writing forecasts", e);
+            syncResult.databaseError = true;
+            finishResponses(results, false);
+            for (LocationForecast result : results) {
+                if (result.status == LOCATION_STATUS_OK) {
+                    result.status = LOCATION_STATUS_SERVER_DOWN;
                 }
             }
         }
-        return;
-    }
-
-    /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
-     */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
 
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
+        for (LocationForecast result : results) {
+            setLocationStatus(getContext(), result.locationSetting, result.status,
+                    result.locationSetting.equals(preferredLocation));
+        }
 
-        // These are the names of the JSON objects that need to be extracted.
+        if (preferredForecast != null && preferredForecast.today != null) {
+            // Every consumer woken below reads this instead of querying the provider again
+            TodaySnapshot.publish(preferredForecast.today);
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+            long start = SystemClock.elapsedRealtimeNanos();
+            updateWidgets();
+            mMetrics.record(SyncMetrics.STAGE_WIDGETS, SystemClock.elapsedRealtimeNanos() - start);
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+            start = SystemClock.elapsedRealtimeNanos();
+            updateMuzei();
+            mMetrics.record(SyncMetrics.STAGE_MUZEI, SystemClock.elapsedRealtimeNanos() - start);
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+            start = SystemClock.elapsedRealtimeNanos();
+            notifyWeather();
+            mMetrics.record(SyncMetrics.STAGE_NOTIFICATION,
+                    SystemClock.elapsedRealtimeNanos() - start);
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+            updateWatch(preferredForecast.today);
+        }
+        // A fresh or revalidated cache entry counts as all of its days fetched and none changed:
+        // an unchanged forecast is the stable weather the schedule should stretch out for.
+        int fetchedDays = 0;
+        for (LocationForecast result : results) {
+            if (result.status != LOCATION_STATUS_OK) {
+                continue;
+            }
+            fetchedDays += result.forecast != null
+                    ? result.forecast.days.size()
+                    : result.unchangedDays;
+        }
+        SyncScheduler.onSyncFinished(getContext(), changedDays, fetchedDays);
+        mMetrics.record(SyncMetrics.STAGE_SYNC, SystemClock.elapsedRealtimeNanos() - syncStart,
+                results.size());
+        Log.d(LOG_TAG, "Sync Complete. " + results.size() + " locations, " + mTransport);
+    }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    /**
+     * Feeds the outcome of each fetch into the circuit breaker of its location and saves the
+     * breakers, and reports the failures to the sync framework.  A location the server doesn't
+     * know is a valid answer, not a failing endpoint.  If every tracked location is backing off,
+     * the framework is asked not to start another sync before the first of them is due.
+     */
+    private void updateCircuitBreakers(SharedPreferences prefs,
+                                       Map<String, CircuitBreaker> breakers,
+                                       List<LocationForecast> results, long now,
+                                       SyncResult syncResult) {
+        for (LocationForecast result : results) {
+            CircuitBreaker breaker = breakers.get(result.locationSetting);
+            switch (result.status) {
+                case LOCATION_STATUS_SERVER_DOWN:
+                    syncResult.stats.numIoExceptions++;
+                    breaker.onFailure(now);
+                    break;
+                case LOCATION_STATUS_SERVER_INVALID:
+                    syncResult.stats.numParseExceptions++;
+                    breaker.onFailure(now);
+                    break;
+                default:
+                    breaker.onSuccess();
+            }
+        }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        long delayUntil = Long.MAX_VALUE;
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, CircuitBreaker> entry : breakers.entrySet()) {
+            CircuitBreaker breaker = entry.getValue();
+            editor.putString(getCircuitBreakerKey(getContext(), entry.getKey()),
+                    breaker.toPreference());
+            long openUntil = breaker.getOpenUntil();
+            delayUntil = openUntil > 0 ? Math.min(delayUntil, openUntil) : 0;
+        }
+        editor.commit();
 
-        final String OWM_MESSAGE_CODE = "cod";
+        if (delayUntil > now && delayUntil != Long.MAX_VALUE) {
+            // Despite its documentation, the SyncManager reads delayUntil as a number of seconds
+            // from now.
+            syncResult.delayUntil = (delayUntil - now) / 1000;
+        }
+    }
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+    /**
+     * Caches the responses the forecasts were parsed from once they have been written, or
+     * throws them away if the write failed.  A response that was cached without its forecast
+     * being stored would be taken as unchanged by the next sync, which then never writes it.
+     */
+    private void finishResponses(List<LocationForecast> results, boolean written) {
+        for (LocationForecast result : results) {
+            if (result.response == null) {
+                continue;
+            }
+            if (written) {
+                try {
+                    result.response.commit(result.forecast.days.size());
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Error caching the forecast for " + result.locationSetting, e);
                 }
+            } else {
+                result.response.discard();
             }
+        }
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
+    static String getCircuitBreakerKey(Context c, String locationSetting) {
+        return c.getString(R.string.pref_circuit_breaker_key) + ":" + locationSetting;
+    }
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    /**
+     * Returns every location setting the sync should refresh: the preferred location first,
+     * followed by the other locations stored in the location table that have been used within
+     * {@link WeatherRetention#UNUSED_DAYS_TO_KEEP_LOCATION} days.  The others are left for
+     * compaction to remove.
+     *
+     * @param storedLocations filled with the locations that are already in the location table
+     */
+    private List<String> getTrackedLocations(String preferredLocation,
+                                             Set<String> storedLocations, long now) {
+        List<String> locationSettings = new ArrayList<String>();
+        locationSettings.add(preferredLocation);
+
+        long oldestUseToKeep = WeatherRetention.getOldestUseToKeep(now);
+        for (String locationSetting : mLocationIds.getLocationSettings()) {
+            storedLocations.add(locationSetting);
+            if (!locationSettings.contains(locationSetting)
+                    && mLocationIds.getLastUsed(locationSetting) >= oldestUseToKeep) {
+                locationSettings.add(locationSetting);
+            }
+        }
+        return locationSettings;
+    }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+    /**
+     * Records that the preferred location is in use.  A day at a time is plenty against the
+     * retention of unused locations, and each update makes every process read the location
+     * table again, so a recent enough time is left alone.  A location that isn't stored yet
+     * gets the time it is inserted.
+     */
+    private void recordLocationUsed(ContentProviderClient provider, String preferredLocation,
+                                    long now) {
+        long lastUsed = mLocationIds.getLastUsed(preferredLocation);
+        if (lastUsed == -1 || now - lastUsed < DAY_IN_MILLIS) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LAST_USED, now);
+        try {
+            provider.update(WeatherContract.LocationEntry.CONTENT_URI, values,
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{preferredLocation});
+        } catch (RemoteException e) {
+            // Tried again by the next sync, long before the location could be removed
+            Log.w(LOG_TAG, "Error recording the use of " + preferredLocation, e);
+        }
+    }
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+    /**
+     * The outcome of fetching the forecast for one location.
+     */
+    static class LocationForecast {
+        final String locationSetting;
+        @LocationStatus int status;
+        // Only set when status is LOCATION_STATUS_OK and the forecast has changed since the
+        // last sync.  A null forecast with LOCATION_STATUS_OK means there is nothing to write.
+        final ForecastJsonParser.Forecast forecast;
+        // The first day of the forecast, set along with it
+        final TodaySnapshot today;
+        // Set by writeForecasts if any day of the forecast differed from the stored one
+        boolean changed;
+        // The finished but uncommitted response the forecast was parsed from, if it came from
+        // the network
+        ForecastResponseCache.CachingInputStream response;
+        // The number of days of a forecast that was found unchanged and so isn't set
+        int unchangedDays;
+
+        LocationForecast(String locationSetting, @LocationStatus int status,
+                         ForecastJsonParser.Forecast forecast) {
+            this.locationSetting = locationSetting;
+            this.status = status;
+            this.forecast = forecast;
+            this.today = forecast != null && forecast.days.size() > 0
+                    ? TodaySnapshot.fromValues(locationSetting, forecast.days.get(0))
+                    : null;
+        }
+    }
 
-                double high;
-                double low;
+    /**
+     * Fetches and parses the forecast for a single location.  Runs on the sync worker pool, so
+     * it must not touch the database or the shared preferences.
+     */
+    private class FetchForecastTask implements Callable<LocationForecast> {
+        private final String mLocationSetting;
+        private final int mJulianStartDay;
+        // Whether the provider already holds data for this location, so that a cached
+        // response doesn't have to be parsed and written again.
+        private final boolean mStored;
+
+        FetchForecastTask(String locationSetting, int julianStartDay, boolean stored) {
+            mLocationSetting = locationSetting;
+            mJulianStartDay = julianStartDay;
+            mStored = stored;
+        }
 
-                String description;
-                int weatherId;
+        @Override
+        public LocationForecast call() {
+            // This needs to be declared outside the try/catch
+            // so that it can be closed in the finally block.
+            HttpURLConnection urlConnection = null;
+            InputStream inputStream = null;
+
+            try {
+                Uri builtUri = mSource.getForecastUri(mLocationSetting);
+
+                // Don't ask the server again while the last response is still fresh
+                long now = System.currentTimeMillis();
+                ForecastResponseCache.Entry cached = mResponseCache.get(builtUri);
+                if (cached != null && cached.isFresh(now)) {
+                    return getCachedWeatherData(cached);
+                }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+                URL url = new URL(builtUri.toString());
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+                // Create the request to the forecast server, and open the connection
+                urlConnection = mTransport.open(url);
+                if (cached != null) {
+                    ForecastResponseCache.addConditionalHeaders(urlConnection, cached);
+                }
+                mTransport.connect(urlConnection);
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+                if (cached != null
+                        && urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    mResponseCache.refresh(cached, urlConnection, now);
+                    return getCachedWeatherData(cached);
+                }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+                // getInputStream throws for an error status, which would be taken for a server
+                // that is down.  A location the server doesn't know is a valid answer.
+                int responseCode = urlConnection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                    return new LocationForecast(mLocationSetting, LOCATION_STATUS_INVALID, null);
+                } else if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                    return new LocationForecast(mLocationSetting, LOCATION_STATUS_SERVER_DOWN, null);
+                }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+                // Parse the forecast straight off the input stream.  An empty stream ends up as
+                // an EOFException, which is reported like any other IO failure.
+                inputStream = mTransport.getInputStream(urlConnection);
+                if (inputStream == null) {
+                    // Nothing to do.
+                    return new LocationForecast(mLocationSetting, LOCATION_STATUS_SERVER_DOWN, null);
+                }
+                ForecastResponseCache.CachingInputStream body =
+                        mResponseCache.put(builtUri, urlConnection, inputStream, now);
+                try {
+                    LocationForecast result = getWeatherDataFromJson(new BufferedInputStream(body),
+                            mLocationSetting, mJulianStartDay);
+                    if (result.status == LOCATION_STATUS_OK) {
+                        // Cached once the forecast has been written, see finishResponses
+                        body.finish();
+                        result.response = body;
+                    }
+                    return result;
+                } finally {
+                    body.close();
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error ", e);
+                // If the code didn't successfully get the weather data, there's no point in attempting
+                // to parse it.
+                return new LocationForecast(mLocationSetting, LOCATION_STATUS_SERVER_DOWN, null);
+            } catch (JSONException e) {
+                Log.e(LOG_TAG, e.getMessage(), e);
+                return new LocationForecast(mLocationSetting, LOCATION_STATUS_SERVER_INVALID, null);
+            } finally {
+                // Hand the connection back to the pool rather than disconnecting it
+                if (urlConnection != null) {
+                    mTransport.release(urlConnection, inputStream);
+                }
+            }
+        }
 
-                ContentValues weatherValues = new ContentValues();
+        /**
+         * Handles a cached response that is still valid.  If the provider already has this
+         * location there is nothing to parse or write; otherwise the cached body is parsed.
+         */
+        private LocationForecast getCachedWeatherData(ForecastResponseCache.Entry cached)
+                throws IOException, JSONException {
+            if (mStored) {
+                Log.d(LOG_TAG, "Forecast unchanged for " + mLocationSetting);
+                LocationForecast result =
+                        new LocationForecast(mLocationSetting, LOCATION_STATUS_OK, null);
+                result.unchangedDays = cached.getDays();
+                return result;
+            }
+            InputStream in = new BufferedInputStream(mResponseCache.openBody(cached));
+            try {
+                return getWeatherDataFromJson(in, mLocationSetting, mJulianStartDay);
+            } finally {
+                in.close();
+            }
+        }
+    }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+    /**
+     * Pull-parse the forecast in JSON Format from the response stream.
+     *
+     * Each element of the "list" array becomes a ContentValues row as soon as it has been read,
+     * so the response is never held as a String or as a JSONObject tree.
+     */
+    private LocationForecast getWeatherDataFromJson(InputStream forecastJsonStream,
+                                                    String locationSetting, int julianStartDay)
+            throws IOException, JSONException {
+        long start = SystemClock.elapsedRealtimeNanos();
+        ForecastJsonParser.Forecast forecast = mSource.parse(forecastJsonStream, julianStartDay);
+        mMetrics.record(SyncMetrics.STAGE_PARSE, SystemClock.elapsedRealtimeNanos() - start,
+                forecast.days.size());
+
+        // do we have an error?
+        switch (forecast.code) {
+            case HttpURLConnection.HTTP_OK:
+                return new LocationForecast(locationSetting, LOCATION_STATUS_OK, forecast);
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return new LocationForecast(locationSetting, LOCATION_STATUS_INVALID, null);
+            default:
+                return new LocationForecast(locationSetting, LOCATION_STATUS_SERVER_DOWN, null);
+        }
+    }
 
-                cVVector.add(weatherValues);
+    /**
+     * Writes the forecasts of every successfully fetched location, and deletes old data, as one
+     * provider batch so that it is applied in a single transaction.  Days that are identical to
+     * the stored ones are left alone, and if nothing changed at all the batch isn't applied.
+     *
+     * @param provider the provider client handed to onPerformSync
+     * @param results the fetched forecasts; their changed flag is set here
+     * @param now the current time, which decides the days that have passed
+     * @return the number of weather rows written
+     */
+    private int writeForecasts(ContentProviderClient provider, List<LocationForecast> results,
+                               long now)
+            throws RemoteException, OperationApplicationException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        // The batch index of each new location's insert, so its id can be cached afterwards
+        Map<String, Integer> newLocations = new HashMap<String, Integer>();
+        int weatherRows = 0;
+
+        for (LocationForecast result : results) {
+            if (result.forecast == null || result.forecast.days.size() == 0) {
+                continue;
             }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                String[] WearItem = new String[3];
-                WearItem[0] = cvArray[0].get(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID).toString();
-                WearItem[1] = cvArray[0].get(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP).toString();
-                WearItem[2] = cvArray[0].get(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP).toString();
-                updateWatch(WearItem);
+            ForecastJsonParser.Forecast forecast = result.forecast;
+            long locationId = mLocationIds.getLocationId(result.locationSetting);
+            int locationOperationIndex = -1;
+            List<ContentValues> changedDays;
+            if (locationId == -1) {
+                changedDays = forecast.days;
+                locationOperationIndex = operations.size();
+                newLocations.put(result.locationSetting, locationOperationIndex);
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withValues(createLocationValues(result.locationSetting, forecast.cityName,
+                                forecast.cityLatitude, forecast.cityLongitude))
+                        .build());
+            } else {
+                long start = SystemClock.elapsedRealtimeNanos();
+                changedDays = ForecastDiff.getChangedDays(provider, locationId, forecast.days);
+                mMetrics.record(SyncMetrics.STAGE_DIFF, SystemClock.elapsedRealtimeNanos() - start,
+                        changedDays.size());
+            }
+            result.changed = !changedDays.isEmpty();
+
+            for (ContentValues weatherValues : changedDays) {
+                ContentProviderOperation.Builder builder = ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(weatherValues);
+                if (locationOperationIndex == -1) {
+                    builder.withValue(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                } else {
+                    builder.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                            locationOperationIndex);
+                }
+                operations.add(builder.build());
+                weatherRows++;
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        // delete old data so we don't build up an endless history
+        String oldDataSelection = WeatherRetention.OLD_WEATHER_SELECTION;
+        String[] oldDataSelectionArgs = WeatherRetention.getOldWeatherSelectionArgs(now);
+        if (weatherRows > 0) {
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withSelection(oldDataSelection, oldDataSelectionArgs)
+                    .build());
+            long start = SystemClock.elapsedRealtimeNanos();
+            ContentProviderResult[] operationResults = provider.applyBatch(operations);
+            mMetrics.record(SyncMetrics.STAGE_WRITE, SystemClock.elapsedRealtimeNanos() - start,
+                    operations.size());
+            for (Map.Entry<String, Integer> newLocation : newLocations.entrySet()) {
+                mLocationIds.put(newLocation.getKey(),
+                        ContentUris.parseId(operationResults[newLocation.getValue()].uri), now);
+            }
+        } else {
+            // Nothing new to write.  The provider only notifies if old rows were actually removed.
+            long start = SystemClock.elapsedRealtimeNanos();
+            int deleted = provider.delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                    oldDataSelection, oldDataSelectionArgs);
+            mMetrics.record(SyncMetrics.STAGE_DELETE_OLD,
+                    SystemClock.elapsedRealtimeNanos() - start, deleted);
         }
+        return weatherRows;
     }
 
     private void updateWidgets() {
@@ -398,7 +660,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    private void updateWatch(final String[] data){
+    private void updateWatch(final TodaySnapshot today){
+        final long start = SystemClock.elapsedRealtimeNanos();
         mGoogleApiClient = new GoogleApiClient.Builder(getContext())
                 .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
                     @Override
@@ -407,9 +670,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
                         PutDataMapRequest dataMapRequest = PutDataMapRequest.create(PATH_WEATHER).setUrgent();
 
-                        dataMapRequest.getDataMap().putString(KEY_MIN_TEMP, data[1]);
-                        dataMapRequest.getDataMap().putString(KEY_MAX_TEMP, data[2]);
-                        dataMapRequest.getDataMap().putString(KEY_ID ,data[0]);
+                        dataMapRequest.getDataMap().putString(KEY_MIN_TEMP, Double.toString(today.minTemp));
+                        dataMapRequest.getDataMap().putString(KEY_MAX_TEMP, Double.toString(today.maxTemp));
+                        dataMapRequest.getDataMap().putString(KEY_ID, Integer.toString(today.weatherId));
                         dataMapRequest.getDataMap().putLong("time",System.currentTimeMillis());
                         PutDataRequest request = dataMapRequest.asPutDataRequest();
 
@@ -418,6 +681,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                             public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
 
                                 if (dataItemResult.getStatus().isSuccess()) {
+                                    mMetrics.record(SyncMetrics.STAGE_WATCH,
+                                            SystemClock.elapsedRealtimeNanos() - start);
                                     Log.d(LOG_TAG, "Item sent");
                                 } else {
                                     Log.d("SyncAdapter", "Item not sent");
@@ -460,18 +725,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
+                TodaySnapshot today = TodaySnapshot.get(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != null) {
+                    int weatherId = today.weatherId;
+                    double high = today.maxTemp;
+                    double low = today.minTemp;
+                    String desc = Utility.getStringForWeatherCondition(context, weatherId);
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -547,59 +807,30 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to build the values for a new location in the weather database.
      *
      * @param locationSetting The location string used to request updates from the server.
      * @param cityName A human-readable city name, e.g "Mountain View"
      * @param lat the latitude of the city
      * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @return the values to insert into the location table.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    static ContentValues createLocationValues(String locationSetting, String cityName,
+                                              double lat, double lon) {
+        ContentValues locationValues = new ContentValues();
+
+        // Add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        return locationValues;
     }
 
     /**
@@ -691,18 +922,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        CompactionJobService.schedule(context);
     }
 
     /**
      * Sets the location status into shared preference.  This function should not be called from
      * the UI thread because it uses commit to write to the shared preferences.
      * @param c Context to get the PreferenceManager from.
+     * @param locationSetting The location the status belongs to
      * @param locationStatus The IntDef value to set
+     * @param preferred true if this is the preferred location, whose status is shown in the UI
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
+    static private void setLocationStatus(Context c, String locationSetting,
+                                          @LocationStatus int locationStatus, boolean preferred){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        spe.putInt(Utility.getLocationStatusKey(c, locationSetting), locationStatus);
+        if (preferred) {
+            spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        }
         spe.commit();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,212 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.Bundle;
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Timings and counters for each stage of a sync, kept in memory for the lifetime of the process.
+ *
+ * Every stage keeps its last {@link #WINDOW} samples in a ring buffer, so the percentiles follow
+ * recent behaviour instead of being dominated by the first syncs after the process started.  The
+ * provider exposes a dump through {@link com.example.android.sunshine.app.data.WeatherProvider#call}.
+ */
+public class SyncMetrics {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STAGE_SYNC, STAGE_CONNECT, STAGE_DOWNLOAD, STAGE_PARSE, STAGE_DIFF, STAGE_WRITE,
+            STAGE_DELETE_OLD, STAGE_WIDGETS, STAGE_MUZEI, STAGE_NOTIFICATION, STAGE_WATCH})
+    public @interface Stage {}
+
+    // The whole of onPerformSync
+    public static final int STAGE_SYNC = 0;
+    // DNS, connect and time to first byte of one request
+    public static final int STAGE_CONNECT = 1;
+    // Reading one response body off the network; the value is the number of bytes received
+    public static final int STAGE_DOWNLOAD = 2;
+    // Parsing one forecast, including the reads it waits for; the value is the number of days
+    public static final int STAGE_PARSE = 3;
+    // Comparing one location with the stored forecast; the value is the number of changed days
+    public static final int STAGE_DIFF = 4;
+    // The provider batch adding new locations, changed days and removing old rows; the value is
+    // the number of operations
+    public static final int STAGE_WRITE = 5;
+    // Removing old rows when there was nothing else to write; the value is the number of rows
+    public static final int STAGE_DELETE_OLD = 6;
+    public static final int STAGE_WIDGETS = 7;
+    public static final int STAGE_MUZEI = 8;
+    public static final int STAGE_NOTIFICATION = 9;
+    // From starting to connect to the watch until the data item was accepted
+    public static final int STAGE_WATCH = 10;
+
+    private static final String[] STAGE_NAMES = {
+            "sync", "connect", "download", "parse", "diff", "write", "delete_old",
+            "widgets", "muzei", "notification", "watch"
+    };
+
+    // Keys of the bundle returned by toBundle; every stage is a nested bundle under its name
+    public static final String KEY_COUNT = "count";
+    public static final String KEY_MEAN_MICROS = "mean_us";
+    public static final String KEY_P50_MICROS = "p50_us";
+    public static final String KEY_P90_MICROS = "p90_us";
+    public static final String KEY_MAX_MICROS = "max_us";
+    public static final String KEY_VALUE_TOTAL = "value_total";
+    public static final String KEY_DUMP = "dump";
+
+    // Number of recent samples kept for each stage
+    static final int WINDOW = 128;
+
+    private static final SyncMetrics sInstance = new SyncMetrics();
+
+    private final Histogram[] mHistograms = new Histogram[STAGE_NAMES.length];
+
+    SyncMetrics() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * @return the metrics shared by the sync adapter and the provider.
+     */
+    public static SyncMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Records one run of a stage.
+     *
+     * @param nanos how long the stage took
+     * @param value a stage specific count, such as bytes or rows
+     */
+    public void record(@Stage int stage, long nanos, long value) {
+        Histogram histogram = mHistograms[stage];
+        synchronized (histogram) {
+            histogram.add(nanos, value);
+        }
+    }
+
+    public void record(@Stage int stage, long nanos) {
+        record(stage, nanos, 0);
+    }
+
+    /**
+     * @return the total number of times a stage ran since the process started.
+     */
+    public long getCount(@Stage int stage) {
+        Histogram histogram = mHistograms[stage];
+        synchronized (histogram) {
+            return histogram.mCount;
+        }
+    }
+
+    /**
+     * @return a bundle with one nested bundle of statistics per stage that has run, and a
+     * human-readable dump under {@link #KEY_DUMP}.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_DUMP, toString());
+        for (int stage = 0; stage < mHistograms.length; stage++) {
+            Summary summary = summarize(stage);
+            if (summary == null) {
+                continue;
+            }
+            Bundle stageBundle = new Bundle();
+            stageBundle.putLong(KEY_COUNT, summary.count);
+            stageBundle.putLong(KEY_MEAN_MICROS, summary.meanMicros);
+            stageBundle.putLong(KEY_P50_MICROS, summary.p50Micros);
+            stageBundle.putLong(KEY_P90_MICROS, summary.p90Micros);
+            stageBundle.putLong(KEY_MAX_MICROS, summary.maxMicros);
+            stageBundle.putLong(KEY_VALUE_TOTAL, summary.valueTotal);
+            bundle.putBundle(STAGE_NAMES[stage], stageBundle);
+        }
+        return bundle;
+    }
+
+    /**
+     * Forgets every sample.
+     */
+    public void reset() {
+        for (Histogram histogram : mHistograms) {
+            synchronized (histogram) {
+                histogram.clear();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int stage = 0; stage < mHistograms.length; stage++) {
+            Summary summary = summarize(stage);
+            if (summary == null) {
+                continue;
+            }
+            sb.append(String.format(Locale.US,
+                    "%-12s n=%-5d mean=%.1fms p50=%.1fms p90=%.1fms max=%.1fms total=%d%n",
+                    STAGE_NAMES[stage], summary.count, summary.meanMicros / 1000.0,
+                    summary.p50Micros / 1000.0, summary.p90Micros / 1000.0,
+                    summary.maxMicros / 1000.0, summary.valueTotal));
+        }
+        return sb.toString();
+    }
+
+    private Summary summarize(int stage) {
+        Histogram histogram = mHistograms[stage];
+        long[] samples;
+        Summary summary = new Summary();
+        synchronized (histogram) {
+            if (histogram.mCount == 0) {
+                return null;
+            }
+            int size = (int) Math.min(histogram.mCount, WINDOW);
+            samples = Arrays.copyOf(histogram.mNanos, size);
+            summary.count = histogram.mCount;
+            summary.valueTotal = histogram.mValueTotal;
+        }
+        Arrays.sort(samples);
+        long sum = 0;
+        for (long sample : samples) {
+            sum += sample;
+        }
+        summary.meanMicros = sum / samples.length / 1000;
+        summary.p50Micros = samples[(samples.length - 1) / 2] / 1000;
+        summary.p90Micros = samples[(samples.length - 1) * 9 / 10] / 1000;
+        summary.maxMicros = samples[samples.length - 1] / 1000;
+        return summary;
+    }
+
+    /**
+     * The recent samples of one stage.
+     */
+    private static class Histogram {
+        final long[] mNanos = new long[WINDOW];
+        long mCount;
+        long mValueTotal;
+
+        void add(long nanos, long value) {
+            mNanos[(int) (mCount % WINDOW)] = nanos;
+            mCount++;
+            mValueTotal += value;
+        }
+
+        void clear() {
+            mCount = 0;
+            mValueTotal = 0;
+        }
+    }
+
+    private static class Summary {
+        long count;
+        long meanMicros;
+        long p50Micros;
+        long p90Micros;
+        long maxMicros;
+        long valueTotal;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Decides how long to wait before the next periodic sync.
+ *
+ * This class is plain Java on purpose: it only sees the signals it is given, so it can be
+ * driven by a simulated clock in tests.  {@link SyncScheduler} gathers the signals on a device.
+ */
+public class SyncSchedulePolicy {
+
+    static final long MINUTE_IN_MILLIS = 60 * 1000;
+    static final long HOUR_IN_MILLIS = 60 * MINUTE_IN_MILLIS;
+
+    // Bounds of the sync interval, in seconds
+    public static final int MIN_INTERVAL = 60 * 60;
+    public static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // Above this volatility the forecast is changing under our feet
+    static final double HIGH_VOLATILITY = 0.5;
+    // Below this volatility the forecast barely moves between syncs
+    static final double LOW_VOLATILITY = 0.1;
+    // Weight of the newest sync in the volatility average
+    static final double VOLATILITY_WEIGHT = 0.5;
+
+    static final long RECENTLY_VIEWED_MILLIS = HOUR_IN_MILLIS;
+    static final long NOT_VIEWED_MILLIS = 12 * HOUR_IN_MILLIS;
+    static final long RECENT_PUSH_MILLIS = 24 * HOUR_IN_MILLIS;
+    static final float LOW_BATTERY = 0.15f;
+
+    /**
+     * Everything the policy knows about the device when it picks the next sync.
+     */
+    public static class Signals {
+        // Smoothed fraction of forecast days that changed per sync, between 0 and 1
+        public double volatility;
+        // Time since the app was last on screen, or Long.MAX_VALUE if never
+        public long sinceLastViewedMillis = Long.MAX_VALUE;
+        // Home screen widgets are looked at without the app ever being opened
+        public boolean widgetsInstalled;
+        public boolean charging;
+        // Between 0 and 1
+        public float batteryLevel = 1f;
+        // Time since a push message last refreshed the data, or Long.MAX_VALUE if never
+        public long sincePushRefreshMillis = Long.MAX_VALUE;
+    }
+
+    private final int mBaseInterval;
+
+    /**
+     * @param baseInterval the interval, in seconds, used for average conditions
+     */
+    public SyncSchedulePolicy(int baseInterval) {
+        mBaseInterval = baseInterval;
+    }
+
+    /**
+     * @return the number of seconds until the next sync.
+     */
+    public int getInterval(Signals signals) {
+        double interval = mBaseInterval;
+
+        // Follow the weather: sync more often while forecasts keep changing
+        if (signals.volatility >= HIGH_VOLATILITY) {
+            interval /= 3;
+        } else if (signals.volatility <= LOW_VOLATILITY) {
+            interval *= 2;
+        }
+
+        // Nobody looks at data nobody is shown
+        if (signals.sinceLastViewedMillis <= RECENTLY_VIEWED_MILLIS) {
+            interval *= 0.75;
+        } else if (signals.sinceLastViewedMillis >= NOT_VIEWED_MILLIS && !signals.widgetsInstalled) {
+            interval *= 2;
+        }
+
+        // Syncing is cheap on the charger and expensive on a nearly empty battery
+        if (signals.charging) {
+            interval *= 0.75;
+        } else if (signals.batteryLevel <= LOW_BATTERY) {
+            interval *= 2;
+        }
+
+        // While pushes are arriving, the server tells us about severe weather and every push
+        // triggers its own sync, so the periodic sync only has to catch slow drift
+        if (signals.sincePushRefreshMillis <= RECENT_PUSH_MILLIS) {
+            interval *= 1.5;
+        }
+
+        return (int) Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+
+    /**
+     * Folds the outcome of one sync into the running volatility.
+     *
+     * @param previous the volatility before this sync
+     * @param changedDays how many forecast days differed from the stored ones
+     * @param totalDays how many forecast days were fetched
+     */
+    public static double updateVolatility(double previous, int changedDays, int totalDays) {
+        if (totalDays <= 0) {
+            return previous;
+        }
+        double current = (double) changedDays / totalDays;
+        return VOLATILITY_WEIGHT * current + (1 - VOLATILITY_WEIGHT) * previous;
+    }
+}
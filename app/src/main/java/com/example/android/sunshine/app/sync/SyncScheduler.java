@@ -0,0 +1,119 @@
+package com.example.android.sunshine.app.sync;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.BatteryManager;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+/**
+ * Keeps the periodic sync in line with {@link SyncSchedulePolicy}.
+ *
+ * Gathers the signals the policy needs from the device and the shared preferences, and
+ * reschedules the periodic sync after every sync whenever the policy picks a new interval.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    private static final SyncSchedulePolicy sPolicy =
+            new SyncSchedulePolicy(SunshineSyncAdapter.SYNC_INTERVAL);
+
+    private SyncScheduler() {
+    }
+
+    /**
+     * Records that the user has the app on screen.
+     */
+    public static void recordAppViewed(Context context) {
+        putLong(context, R.string.pref_last_viewed_key, System.currentTimeMillis());
+    }
+
+    /**
+     * Records that a push message has triggered a refresh of the forecast.
+     */
+    public static void recordPushRefresh(Context context) {
+        putLong(context, R.string.pref_last_push_key, System.currentTimeMillis());
+    }
+
+    /**
+     * Folds the outcome of a sync into the forecast volatility and reschedules the periodic sync
+     * if the interval changed.  Should not be called from the UI thread because it uses commit
+     * to write to the shared preferences.
+     *
+     * @param changedDays how many of the fetched forecast days differed from the stored ones
+     * @param totalDays how many forecast days were fetched and compared
+     */
+    static void onSyncFinished(Context context, int changedDays, int totalDays) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String volatilityKey = context.getString(R.string.pref_sync_volatility_key);
+        String intervalKey = context.getString(R.string.pref_sync_interval_key);
+
+        double volatility = SyncSchedulePolicy.updateVolatility(
+                prefs.getFloat(volatilityKey, 0f), changedDays, totalDays);
+        SyncSchedulePolicy.Signals signals = getSignals(context, prefs, volatility);
+        int interval = sPolicy.getInterval(signals);
+
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putFloat(volatilityKey, (float) volatility);
+        if (interval != prefs.getInt(intervalKey, SunshineSyncAdapter.SYNC_INTERVAL)) {
+            Log.d(LOG_TAG, "Next sync in " + interval + "s (volatility " + volatility + ")");
+            SunshineSyncAdapter.configurePeriodicSync(context, interval, interval / 3);
+            editor.putInt(intervalKey, interval);
+        }
+        editor.commit();
+    }
+
+    private static SyncSchedulePolicy.Signals getSignals(Context context, SharedPreferences prefs,
+                                                         double volatility) {
+        long now = System.currentTimeMillis();
+        SyncSchedulePolicy.Signals signals = new SyncSchedulePolicy.Signals();
+        signals.volatility = volatility;
+        signals.sinceLastViewedMillis =
+                getMillisSince(prefs, context.getString(R.string.pref_last_viewed_key), now);
+        signals.sincePushRefreshMillis =
+                getMillisSince(prefs, context.getString(R.string.pref_last_push_key), now);
+        signals.widgetsInstalled = hasWidgets(context);
+
+        // ACTION_BATTERY_CHANGED is sticky, so this returns the last broadcast without a receiver
+        Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            signals.charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                    || status == BatteryManager.BATTERY_STATUS_FULL;
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                signals.batteryLevel = (float) level / scale;
+            }
+        }
+        return signals;
+    }
+
+    private static boolean hasWidgets(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        return appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, DetailWidgetProvider.class)).length > 0;
+    }
+
+    private static long getMillisSince(SharedPreferences prefs, String key, long now) {
+        long time = prefs.getLong(key, 0);
+        return time > 0 ? Math.max(0, now - time) : Long.MAX_VALUE;
+    }
+
+    private static void putLong(Context context, int keyResId, long value) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putLong(context.getString(keyResId), value)
+                .apply();
+    }
+}
@@ -18,6 +18,8 @@ import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.util.Arrays;
+
 public final class SunshineWatchFaceUtil {
     private static final String TAG = "SunshineWatchFaceUtil";
 
@@ -192,31 +194,43 @@ public final class SunshineWatchFaceUtil {
 
     private SunshineWatchFaceUtil() { }
 
+    // The lowest and highest OpenWeatherMap condition codes with art
+    private static final int FIRST_WEATHER_ID = 200;
+    private static final int LAST_WEATHER_ID = 804;
+
+    // The art of each condition code, indexed by code - FIRST_WEATHER_ID, built once so the
+    // watch face doesn't walk a chain of ranges on every weather update.  This mirrors the
+    // art of the phone app's WeatherConditions, see
+    // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+    private static final int[] sImageResources =
+            new int[LAST_WEATHER_ID - FIRST_WEATHER_ID + 1];
+
+    static {
+        Arrays.fill(sImageResources, R.mipmap.ic_launcher);
+        setImageResource(200, 232, R.drawable.art_storm);
+        setImageResource(300, 321, R.drawable.art_light_rain);
+        setImageResource(500, 504, R.drawable.art_rain);
+        setImageResource(511, 511, R.drawable.art_snow);
+        setImageResource(520, 531, R.drawable.art_rain);
+        setImageResource(600, 622, R.drawable.art_snow);
+        setImageResource(701, 761, R.drawable.art_fog);
+        setImageResource(781, 781, R.drawable.art_storm);
+        setImageResource(800, 800, R.drawable.art_clear);
+        setImageResource(801, 801, R.drawable.art_light_clouds);
+        setImageResource(802, 804, R.drawable.art_clouds);
+    }
+
+    private static void setImageResource(int firstId, int lastId, int resourceId) {
+        Arrays.fill(sImageResources, firstId - FIRST_WEATHER_ID, lastId - FIRST_WEATHER_ID + 1,
+                resourceId);
+    }
+
     public static int getImageResource(float weatherId) {
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.art_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.art_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.art_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.art_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.art_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.art_clouds;
+        int id = (int) weatherId;
+        if (id != weatherId || id < FIRST_WEATHER_ID || id > LAST_WEATHER_ID) {
+            return R.mipmap.ic_launcher;
         }
-        return R.mipmap.ic_launcher;
+        return sImageResources[id - FIRST_WEATHER_ID];
     }
 
     public static String formatTemperature(String temperature) {